@@ -0,0 +1,85 @@
+package benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import javafx.geometry.Point2D;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import physics.PointForceField;
+import physics.engine.Integrator;
+import physics.engine.SpringEngine;
+
+/**
+ * Measures how many steps per second the engine takes, without JavaFX.
+ *
+ * The bodies are scattered at random and keep moving for the whole run, since
+ * the engine never puts them to sleep by default.
+ *
+ * @author Christoph Burschka &lt;christoph@burschka.de&gt;
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EngineBenchmark {
+
+    static final double TIME_STEP = 1e-3;
+    static final double LENGTH = 50;
+    static final double STRENGTH = 50;
+
+    @Param({"100", "1000"})
+    int nodes;
+
+    @Param({"CHAIN", "WHEEL", "COMPLETE", "RANDOM"})
+    Graph graph;
+
+    // The random edges per node, for RANDOM.
+    @Param({"4"})
+    int degree;
+
+    @Param({"0", "2"})
+    int fields;
+
+    @Param({"BOX2D", "EULER", "IMPLICIT"})
+    Integrator integrator;
+
+    private SpringEngine engine;
+
+    @Setup(Level.Trial)
+    public void build() {
+        Random random = new Random(42);
+        engine = new SpringEngine();
+        engine.setIntegrator(integrator);
+        engine.setFriction(2);
+        double size = Math.sqrt(nodes) * LENGTH;
+        for (int i = 0; i < nodes; i++) {
+            double mass = i == 0 ? Double.POSITIVE_INFINITY : 1;
+            engine.createBody(random.nextDouble() * size, random.nextDouble() * size, mass);
+        }
+        graph.connect(nodes, degree, random, (a, b) -> {
+            engine.addSpring(a, b, LENGTH, STRENGTH, 0, 0, 0, 0);
+        });
+        for (int f = 0; f < fields; f++) {
+            Point2D source = new Point2D(random.nextDouble() * size, random.nextDouble() * size);
+            engine.addField(new PointForceField(source, -STRENGTH));
+        }
+    }
+
+    @Benchmark
+    public SpringEngine step() {
+        engine.step(TIME_STEP);
+        return engine;
+    }
+}
@@ -0,0 +1,47 @@
+package benchmarks;
+
+import com.sun.javafx.application.PlatformImpl;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Starts the JavaFX toolkit for benchmarks that need it.
+ *
+ * Unless the platform is chosen on the command line, the toolkit runs on the
+ * headless Monocle platform with software rendering, so no display is
+ * needed. The benchmark threads never attach their panes to a scene, which
+ * keeps the simulations from animating while they are measured.
+ *
+ * @author Christoph Burschka &lt;christoph@burschka.de&gt;
+ */
+final class Fx {
+
+    private static boolean started;
+
+    private Fx() {
+    }
+
+    static synchronized void start() {
+        if (started) {
+            return;
+        }
+        setDefault("glass.platform", "Monocle");
+        setDefault("monocle.platform", "Headless");
+        setDefault("prism.order", "sw");
+        setDefault("java.awt.headless", "true");
+        CountDownLatch latch = new CountDownLatch(1);
+        PlatformImpl.startup(latch::countDown);
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+        started = true;
+    }
+
+    private static void setDefault(String key, String value) {
+        if (System.getProperty(key) == null) {
+            System.setProperty(key, value);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package benchmarks;
+
+import java.util.Random;
+
+/**
+ * The shapes of spring graphs that the benchmarks are run on.
+ *
+ * @author Christoph Burschka &lt;christoph@burschka.de&gt;
+ */
+public enum Graph {
+
+    /**
+     * Each node is connected to the next one.
+     */
+    CHAIN,
+    /**
+     * Node 0 is the hub; it is connected to every other node, and the others
+     * form a ring around it, as in WheelPane.
+     */
+    WHEEL,
+    /**
+     * Every node is connected to every other node, as in PhysicalVBox and
+     * PhysicalHBox.
+     */
+    COMPLETE,
+    /**
+     * Each node is connected to a number of randomly chosen nodes.
+     */
+    RANDOM;
+
+    /**
+     * Receives the edges of a graph.
+     */
+    public interface Edges {
+
+        void add(int a, int b);
+    }
+
+    /**
+     * Generate the edges of a graph.
+     *
+     * @param n the number of nodes
+     * @param degree the number of random edges per node, for RANDOM.
+     * @param random the source of random edges
+     * @param edges receives each edge once.
+     */
+    public void connect(int n, int degree, Random random, Edges edges) {
+        switch (this) {
+            case CHAIN:
+                for (int i = 1; i < n; i++) {
+                    edges.add(i - 1, i);
+                }
+                break;
+            case WHEEL:
+                for (int i = 1; i < n; i++) {
+                    edges.add(0, i);
+                    if (n > 3 || i > 1) {
+                        edges.add(i, i == n - 1 ? 1 : i + 1);
+                    }
+                }
+                break;
+            case COMPLETE:
+                for (int i = 0; i < n; i++) {
+                    for (int j = i + 1; j < n; j++) {
+                        edges.add(i, j);
+                    }
+                }
+                break;
+            case RANDOM:
+                for (int i = 0; i < n; i++) {
+                    for (int k = 0; k < degree; k++) {
+                        int j = random.nextInt(n - 1);
+                        edges.add(i, j < i ? j : j + 1);
+                    }
+                }
+                break;
+        }
+    }
+}
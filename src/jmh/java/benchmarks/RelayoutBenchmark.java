@@ -0,0 +1,111 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import javafx.geometry.Pos;
+import javafx.scene.layout.Pane;
+import javafx.scene.shape.Rectangle;
+import layout.panes.PhysicalHBox;
+import layout.panes.PhysicalPane;
+import layout.panes.PhysicalVBox;
+import layout.panes.Topology;
+import layout.panes.WheelPane;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures how long a physical pane takes to lay out its children again after
+ * it has been resized, which updates the springs and tethers of its
+ * simulation (and, when snapping, moves the children to their equilibrium).
+ *
+ * @author Christoph Burschka &lt;christoph@burschka.de&gt;
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RelayoutBenchmark {
+
+    // Only the boxes snap, so there is no snapping wheel.
+    public enum Kind {
+        VBOX, HBOX, SNAPPING_VBOX, SNAPPING_HBOX, WHEEL
+    }
+
+    @Param({"VBOX", "HBOX", "SNAPPING_VBOX", "SNAPPING_HBOX", "WHEEL"})
+    Kind pane;
+
+    @Param({"10", "50"})
+    int nodes;
+
+    @Param({"COMPLETE", "NEAREST"})
+    Topology topology;
+
+    private Pane root;
+    private boolean wide;
+
+    @Setup(Level.Trial)
+    public void build() {
+        Fx.start();
+        switch (pane) {
+            case VBOX:
+            case SNAPPING_VBOX:
+                PhysicalVBox vbox = new PhysicalVBox(10);
+                vbox.setAlignment(Pos.CENTER);
+                vbox.setSnapping(pane == Kind.SNAPPING_VBOX);
+                root = vbox;
+                break;
+            case HBOX:
+            case SNAPPING_HBOX:
+                PhysicalHBox hbox = new PhysicalHBox(10);
+                hbox.setAlignment(Pos.CENTER);
+                hbox.setSnapping(pane == Kind.SNAPPING_HBOX);
+                root = hbox;
+                break;
+            case WHEEL:
+                WheelPane wheel = new WheelPane();
+                root = wheel;
+                break;
+        }
+        ((PhysicalPane) root).setTopology(topology);
+        for (int i = 0; i < nodes; i++) {
+            Rectangle child = new Rectangle(20, 20);
+            if (i == 0 && root instanceof WheelPane) {
+                // The center property adds its node to the children.
+                ((WheelPane) root).center.set(child);
+            } else {
+                root.getChildren().add(child);
+            }
+        }
+        resize();
+    }
+
+    @TearDown(Level.Trial)
+    public void destroy() {
+        ((PhysicalPane) root).getSimulation().destroy();
+    }
+
+    @Benchmark
+    public Pane relayout() {
+        resize();
+        return root;
+    }
+
+    private void resize() {
+        double size = 25 * nodes + (wide ? 100 : 0);
+        wide = !wide;
+        root.resize(size, size);
+        root.layout();
+    }
+}
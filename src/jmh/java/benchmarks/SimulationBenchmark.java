@@ -0,0 +1,109 @@
+package benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import javafx.geometry.Point2D;
+import javafx.scene.Node;
+import javafx.scene.layout.Pane;
+import javafx.scene.shape.Rectangle;
+import layout.PhysLayout;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import physics.Box2DSpringSimulation;
+import physics.PointForceField;
+import physics.Spring;
+import physics.engine.Integrator;
+
+/**
+ * Measures the simulation of a PhysLayout: one step, which includes taking
+ * over the changes of the layout, and one frame, which also moves the nodes.
+ *
+ * Like EngineBenchmark, the bodies keep moving for the whole run, so that
+ * every step measures the same amount of work.
+ *
+ * @author Christoph Burschka &lt;christoph@burschka.de&gt;
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SimulationBenchmark {
+
+    @Param({"10", "100"})
+    int nodes;
+
+    @Param({"CHAIN", "WHEEL", "COMPLETE", "RANDOM"})
+    Graph graph;
+
+    // The random edges per node, for RANDOM.
+    @Param({"4"})
+    int degree;
+
+    @Param({"0", "2"})
+    int fields;
+
+    @Param({"BOX2D", "EULER", "IMPLICIT"})
+    Integrator integrator;
+
+    private Box2DSpringSimulation simulation;
+
+    @Setup(Level.Trial)
+    public void build() {
+        Fx.start();
+        Random random = new Random(42);
+        Pane root = new Pane();
+        PhysLayout layout = new PhysLayout(root);
+        double size = Math.sqrt(nodes) * EngineBenchmark.LENGTH;
+        Node[] children = new Node[nodes];
+        for (int i = 0; i < nodes; i++) {
+            children[i] = new Rectangle(20, 20);
+            children[i].relocate(random.nextDouble() * size, random.nextDouble() * size);
+            root.getChildren().add(children[i]);
+        }
+        layout.setMass(children[0], Double.POSITIVE_INFINITY);
+        graph.connect(nodes, degree, random, (a, b) -> {
+            layout.addConnection(children[a], children[b], new Spring(EngineBenchmark.LENGTH, EngineBenchmark.STRENGTH));
+        });
+        for (int f = 0; f < fields; f++) {
+            double x = random.nextDouble() * size, y = random.nextDouble() * size;
+            layout.addField(new PointForceField(new Point2D(x, y), -EngineBenchmark.STRENGTH));
+        }
+        simulation = new Box2DSpringSimulation(layout);
+        simulation.stopSimulation();
+        simulation.setFriction(2);
+        simulation.setIntegrator(integrator);
+        simulation.setSleepTime(Double.POSITIVE_INFINITY);
+    }
+
+    @TearDown(Level.Trial)
+    public void destroy() {
+        simulation.destroy();
+    }
+
+    @Benchmark
+    public Box2DSpringSimulation step() {
+        simulation.step();
+        return simulation;
+    }
+
+    @Benchmark
+    public Box2DSpringSimulation frame() {
+        simulation.updateModel();
+        simulation.step();
+        simulation.updateView();
+        return simulation;
+    }
+}
@@ -0,0 +1,199 @@
+package layout;
+
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import javafx.scene.Node;
+import physics.Spring;
+
+/**
+ * The set of springs connecting an unordered pair of nodes.
+ *
+ * Each pair of connected nodes is stored only once. A spring's first anchor is
+ * on the node it was added from, so it is either oriented from the first to
+ * the second endpoint or reversed. Its force acts on the node of its first
+ * anchor, and in the opposite direction on the other.
+ *
+ * @author Christoph Burschka &lt;christoph@burschka.de&gt;
+ */
+public class Connection {
+
+    private final int id;
+    private final Node a, b;
+    private final int indexA, indexB;
+    private final Set<Spring> springs;
+    private final Set<Spring> reversed;
+    private final Set<Spring> view, fromA, fromB;
+
+    Connection(int id, Node a, Node b, int indexA, int indexB) {
+        this.id = id;
+        this.a = a;
+        this.b = b;
+        this.indexA = indexA;
+        this.indexB = indexB;
+        // Springs are loaded in the order they were added.
+        springs = new LinkedHashSet<>();
+        reversed = new HashSet<>();
+        view = Collections.unmodifiableSet(springs);
+        fromA = new Oriented(false);
+        fromB = new Oriented(true);
+    }
+
+    /**
+     * Get the identifier of this connection. It remains fixed until the
+     * connection is removed, after which it may be reused.
+     *
+     * @return a small non-negative integer.
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Get the first endpoint.
+     *
+     * @return the node that the springs are oriented from.
+     */
+    public Node getA() {
+        return a;
+    }
+
+    /**
+     * Get the second endpoint.
+     *
+     * @return the node that the springs are oriented to.
+     */
+    public Node getB() {
+        return b;
+    }
+
+    /**
+     * Get the index of the first endpoint in its layout.
+     *
+     * @return the node index.
+     */
+    public int getIndexA() {
+        return indexA;
+    }
+
+    /**
+     * Get the index of the second endpoint in its layout.
+     *
+     * @return the node index.
+     */
+    public int getIndexB() {
+        return indexB;
+    }
+
+    /**
+     * Get the opposite endpoint.
+     *
+     * @param from either endpoint of the connection.
+     * @return the other endpoint.
+     */
+    public Node getOther(Node from) {
+        return from == a ? b : a;
+    }
+
+    /**
+     * Get the springs.
+     *
+     * @return an unmodifiable view of the springs, in either orientation.
+     */
+    public Set<Spring> getSprings() {
+        return view;
+    }
+
+    /**
+     * Get the springs oriented from one endpoint.
+     *
+     * Springs that were added from that endpoint are returned as they are;
+     * the others are returned as reversed copies (see Spring.reverse), so
+     * changing a copy does not change the layout.
+     *
+     * @param from either endpoint of the connection.
+     * @return an unmodifiable view of the springs whose first anchor is on
+     * that endpoint.
+     */
+    public Set<Spring> getSprings(Node from) {
+        return from == a ? fromA : fromB;
+    }
+
+    /**
+     * Check the orientation of a spring.
+     *
+     * @param s one of the springs of this connection.
+     * @return true if the spring was added from the second endpoint, so that
+     * its first anchor is on that node.
+     */
+    public boolean isReversed(Spring s) {
+        return reversed.contains(s);
+    }
+
+    /**
+     * Add a spring, or change the orientation of a spring that was already
+     * added.
+     *
+     * @return true if the spring is new.
+     */
+    boolean add(Node from, Spring s) {
+        boolean added = springs.add(s);
+        if (from == a) {
+            reversed.remove(s);
+        } else {
+            reversed.add(s);
+        }
+        return added;
+    }
+
+    /**
+     * Remove a spring.
+     *
+     * @return true if the spring was part of this connection.
+     */
+    boolean remove(Spring s) {
+        reversed.remove(s);
+        return springs.remove(s);
+    }
+
+    boolean isEmpty() {
+        return springs.isEmpty();
+    }
+
+    /**
+     * A read-only view of the springs, reversing them as they are read.
+     */
+    private final class Oriented extends AbstractSet<Spring> {
+
+        private final boolean fromB;
+
+        Oriented(boolean fromB) {
+            this.fromB = fromB;
+        }
+
+        @Override
+        public Iterator<Spring> iterator() {
+            Iterator<Spring> i = springs.iterator();
+            return new Iterator<Spring>() {
+                @Override
+                public boolean hasNext() {
+                    return i.hasNext();
+                }
+
+                @Override
+                public Spring next() {
+                    Spring s = i.next();
+                    return reversed.contains(s) == fromB ? s : s.reverse();
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return springs.size();
+        }
+    }
+}
@@ -1,23 +1,36 @@
 package layout;
 
+import java.util.AbstractSet;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
-import java.util.stream.Collectors;
+import javafx.beans.InvalidationListener;
+import javafx.beans.Observable;
+import javafx.beans.property.ReadOnlyLongProperty;
+import javafx.beans.property.ReadOnlyLongWrapper;
 import javafx.beans.property.ReadOnlyMapWrapper;
 import javafx.beans.property.ReadOnlySetWrapper;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableMap;
 import javafx.collections.ObservableSet;
+import javafx.geometry.Point2D;
 import javafx.scene.Node;
 import javafx.scene.layout.Pane;
 import javafx.util.Pair;
 import physics.ForceField;
 import physics.Spring;
+import physics.SpringMesh;
 import physics.Tether;
 
 public class PhysLayout {
@@ -26,22 +39,82 @@ public class PhysLayout {
     private final ReadOnlySetWrapper<Node> nodes;
     private final ReadOnlyMapWrapper<Node, Double> masses;
     private final Set<ForceField> fields;
-    private final Map<Pair<Node, Node>, Set<Spring>> connections;
-    private final Map<Node, Set<Tether>> tethers;
-    private final Map<Node, Set<Node>> neighbors;
+    private final Map<Integer, Connection> connections;
+    private final Map<Long, Connection> pairs;
+    private final Deque<Integer> freeIds;
+    private SpringMesh mesh;
+    private final ReadOnlyLongWrapper revision = new ReadOnlyLongWrapper(0);
+    private final ReadOnlyLongWrapper parameterRevision = new ReadOnlyLongWrapper(0);
+    private final InvalidationListener parameterWatcher = (observable) -> {
+        parameterRevision.set(parameterRevision.get() + 1);
+    };
+
+    /**
+     * Every node is assigned a dense integer index, which is used to look up
+     * its mass, tethers and connections. Indices of removed nodes are reused.
+     */
+    private final Map<Node, Integer> index;
+    private final Deque<Integer> freeIndices;
+    private Node[] indexed;
+    private double[] massTable;
+    private Point2D[] meshTable;
+    private final List<Set<Tether>> tetherTable;
+    private final List<Set<Connection>> incidentTable;
 
     public PhysLayout(Pane root) {
         this.root = root;
         nodes = new ReadOnlySetWrapper<>(FXCollections.observableSet());
         connections = new HashMap<>();
-        tethers = new HashMap<>();
-        neighbors = new HashMap<>();
+        pairs = new HashMap<>();
+        freeIds = new ArrayDeque<>();
         masses = new ReadOnlyMapWrapper(FXCollections.observableMap(new HashMap<>()));
-        fields = new HashSet<>();
+        fields = new LinkedHashSet<>();
+        index = new HashMap<>();
+        freeIndices = new ArrayDeque<>();
+        indexed = new Node[0];
+        massTable = new double[0];
+        meshTable = new Point2D[0];
+        tetherTable = new ArrayList<>();
+        incidentTable = new ArrayList<>();
     }
 
+    /**
+     * Get the pane whose children are laid out.
+     *
+     * @return the pane passed to the constructor.
+     */
+    public Pane getRoot() {
+        return root;
+    }
+
+    /**
+     * Get the springs between two nodes, oriented from the first node.
+     *
+     * Springs that were added from a are returned as they are; springs that
+     * were added from b are returned as reversed copies (see Spring.reverse),
+     * so changing a copy does not change the layout.
+     *
+     * @param a the first node
+     * @param b the second node
+     * @return an unmodifiable view of the springs whose first anchor is on a,
+     * or null if the nodes are not connected.
+     */
     public Set<Spring> getConnections(Node a, Node b) {
-        return connections.get(new Pair<>(a, b));
+        Connection c = getConnection(a, b);
+        return c == null ? null : c.getSprings(a);
+    }
+
+    /**
+     * Get the connection between two nodes.
+     *
+     * @param a the first node
+     * @param b the second node
+     * @return the connection, regardless of its orientation, or null.
+     */
+    public Connection getConnection(Node a, Node b) {
+        int iA = getIndex(a);
+        int iB = getIndex(b);
+        return iA < 0 || iB < 0 ? null : pairs.get(pair(iA, iB));
     }
 
     /**
@@ -53,11 +126,36 @@ public class PhysLayout {
      */
     public void setMass(Node a, double m) {
         addNode(a);
+        massTable[getIndex(a)] = m;
         masses.put(a, m);
     }
 
+    /**
+     * Reset the mass of a node to the default.
+     *
+     * @param a
+     */
+    public void clearMass(Node a) {
+        int i = getIndex(a);
+        if (i >= 0) {
+            massTable[i] = 1.0;
+            masses.remove(a);
+        }
+    }
+
     public double getMass(Node a) {
-        return masses.getOrDefault(a, 1.0);
+        int i = getIndex(a);
+        return i < 0 ? 1.0 : massTable[i];
+    }
+
+    /**
+     * Get the mass of a node by its index.
+     *
+     * @param i the index of the node.
+     * @return the mass.
+     */
+    public double getMass(int i) {
+        return massTable[i];
     }
 
     public ObservableMap<Node, Double> getMasses() {
@@ -65,141 +163,466 @@ public class PhysLayout {
     }
 
     public void addNode(Node a) {
+        if (insertNode(a)) {
+            modified();
+        }
+    }
+
+    /**
+     * Add a node without changing the revision.
+     *
+     * @return true if the node is new.
+     */
+    private boolean insertNode(Node a) {
+        if (index.containsKey(a)) {
+            return false;
+        }
+        if (freeIndices.isEmpty()) {
+            grow();
+        }
+        int i = freeIndices.poll();
+        index.put(a, i);
+        indexed[i] = a;
+        massTable[i] = 1.0;
         nodes.add(a);
+        return true;
+    }
+
+    /**
+     * Stop following the parameters of springs or tethers that are removed.
+     */
+    private void unwatch(Set<? extends Observable> removed) {
+        if (removed != null) {
+            for (Observable o : removed) {
+                o.removeListener(parameterWatcher);
+            }
+        }
+    }
+
+    /**
+     * Change the revision once for each modification.
+     */
+    private void modified() {
+        revision.set(revision.get() + 1);
+    }
+
+    private void grow() {
+        int capacity = Math.max(16, indexed.length * 2);
+        for (int i = indexed.length; i < capacity; i++) {
+            tetherTable.add(null);
+            incidentTable.add(null);
+            freeIndices.add(i);
+        }
+        indexed = Arrays.copyOf(indexed, capacity);
+        massTable = Arrays.copyOf(massTable, capacity);
+        meshTable = Arrays.copyOf(meshTable, capacity);
     }
 
     public void removeNode(Node a) {
-        nodes.remove(a);
-        masses.remove(a);
-        Set<Node> nA = neighbors.get(a);
-        if (nA != null) {
-            nA.stream().forEach((b) -> {
-                clearConnections(a, b);
+        int i = getIndex(a);
+        if (i < 0) {
+            return;
+        }
+        Set<Connection> incident = incidentTable.get(i);
+        if (incident != null) {
+            new ArrayList<>(incident).stream().forEach((c) -> {
+                unlink(c);
             });
         }
+        // The index must remain valid while listeners process the removal.
+        nodes.remove(a);
+        masses.remove(a);
+        unwatch(tetherTable.get(i));
+        tetherTable.set(i, null);
+        incidentTable.set(i, null);
+        meshTable[i] = null;
+        indexed[i] = null;
+        index.remove(a);
+        freeIndices.push(i);
+        modified();
     }
 
     public void addConnection(Node a, Node b, Spring... s) {
-        addNode(a);
-        addNode(b);
+        insertNode(a);
+        insertNode(b);
 
-        Set<Spring> cAB = getConnections(a, b);
-        Set<Spring> cBA = getConnections(b, a);
-        if (cAB == null) {
-            cAB = new HashSet<>();
-            connections.put(new Pair<>(a, b), cAB);
+        Connection c = getConnection(a, b);
+        if (c == null) {
+            Integer id = freeIds.poll();
+            int iA = getIndex(a);
+            int iB = getIndex(b);
+            c = new Connection(id == null ? connections.size() : id, a, b, iA, iB);
+            connections.put(c.getId(), c);
+            pairs.put(pair(iA, iB), c);
+            incident(iA).add(c);
+            incident(iB).add(c);
         }
-        if (cBA == null) {
-            cBA = new HashSet<>();
-            connections.put(new Pair<>(b, a), cBA);
+        for (Spring x : s) {
+            if (c.add(a, x)) {
+                x.addListener(parameterWatcher);
+            }
         }
+        modified();
+    }
 
-        cAB.addAll(Arrays.asList(s));
-        cBA.addAll(Arrays.asList(s).stream().map((x) -> {
-            return x.reverse();
-        }).collect(Collectors.toList()));
-
-        Set<Node> nA = neighbors.get(a);
-        Set<Node> nB = neighbors.get(b);
-        if (nA == null) {
-            nA = new HashSet<>();
-            neighbors.put(a, nA);
-        }
-        if (nB == null) {
-            nB = new HashSet<>();
-            neighbors.put(b, nB);
+    private Set<Connection> incident(int i) {
+        Set<Connection> c = incidentTable.get(i);
+        if (c == null) {
+            c = new LinkedHashSet<>();
+            incidentTable.set(i, c);
         }
-        nA.add(b);
-        nB.add(a);
+        return c;
+    }
+
+    /**
+     * Combine two node indices into a key that does not depend on their order.
+     */
+    private static long pair(int a, int b) {
+        return a < b ? ((long) a << 32) | b : ((long) b << 32) | a;
     }
 
     public void removeConnection(Node a, Node b, Spring s) {
-        Set<Spring> cAB = connections.get(new Pair<>(a, b));
-        Set<Spring> cBA = connections.get(new Pair<>(b, a));
-        if (cAB != null) {
-            cAB.remove(s);
-            if (cAB.isEmpty()) {
-                clearConnections(a, b);
-            } else {
-                cBA.remove(s.reverse());
+        Connection c = getConnection(a, b);
+        if (c != null && c.remove(s)) {
+            s.removeListener(parameterWatcher);
+            if (c.isEmpty()) {
+                unlink(c);
             }
+            modified();
         }
     }
 
     public void addTether(Node node, Tether... tether) {
-        addNode(node);
-        Set<Tether> t = tethers.get(node);
+        insertNode(node);
+        int i = getIndex(node);
+        Set<Tether> t = tetherTable.get(i);
         if (t == null) {
-            t = new HashSet<>();
-            tethers.put(node, t);
+            t = new LinkedHashSet<>();
+            tetherTable.set(i, t);
         }
-        t.addAll(Arrays.asList(tether));
+        for (Tether x : tether) {
+            if (t.add(x)) {
+                x.addListener(parameterWatcher);
+            }
+        }
+        modified();
     }
 
     public void removeTether(Node node, Tether tether) {
-        Set<Tether> t = tethers.get(node);
-        if (t != null) {
-            t.remove(tether);
+        Set<Tether> t = getTethers(node);
+        if (t != null && t.remove(tether)) {
+            tether.removeListener(parameterWatcher);
             if (t.isEmpty()) {
-                clearTethers(node);
+                tetherTable.set(getIndex(node), null);
             }
+            modified();
         }
     }
 
     public void clearConnections(Node a, Node b) {
-        connections.remove(new Pair<>(a, b));
-        connections.remove(new Pair<>(b, a));
-        Set<Node> nA = neighbors.get(a);
-        Set<Node> nB = neighbors.get(b);
-        if (nA != null) {
-            nA.remove(b);
-            nB.remove(a);
+        Connection c = getConnection(a, b);
+        if (c != null) {
+            unlink(c);
+            modified();
         }
     }
 
+    /**
+     * Remove a connection without changing the revision.
+     */
+    private void unlink(Connection c) {
+        unwatch(c.getSprings());
+        connections.remove(c.getId());
+        pairs.remove(pair(c.getIndexA(), c.getIndexB()));
+        freeIds.push(c.getId());
+        incidentTable.get(c.getIndexA()).remove(c);
+        incidentTable.get(c.getIndexB()).remove(c);
+    }
+
     public void clearAllConnections() {
+        for (Connection c : connections.values()) {
+            unwatch(c.getSprings());
+        }
         connections.clear();
-        neighbors.clear();
+        pairs.clear();
+        freeIds.clear();
+        Collections.fill(incidentTable, null);
+        modified();
     }
 
     public void clearTethers(Node node) {
-        tethers.remove(node);
+        int i = getIndex(node);
+        if (i >= 0 && tetherTable.get(i) != null) {
+            unwatch(tetherTable.get(i));
+            tetherTable.set(i, null);
+            modified();
+        }
     }
 
     public void clearAllTethers() {
-        tethers.clear();
+        for (Set<Tether> t : tetherTable) {
+            unwatch(t);
+        }
+        Collections.fill(tetherTable, null);
+        modified();
+    }
+
+    /**
+     * Set the spring mesh that connects all nodes with a mesh target.
+     *
+     * @param mesh the mesh parameters, or null to disable the mesh.
+     */
+    public void setMesh(SpringMesh mesh) {
+        this.mesh = mesh;
+        modified();
+    }
+
+    public SpringMesh getMesh() {
+        return mesh;
+    }
+
+    /**
+     * Add a node to the spring mesh. It will be connected to every other node
+     * in the mesh, by a spring as long as the distance between their targets.
+     *
+     * @param node the node
+     * @param target the target position of the node
+     */
+    public void setMeshTarget(Node node, Point2D target) {
+        insertNode(node);
+        meshTable[getIndex(node)] = target;
+        modified();
+    }
+
+    /**
+     * Get the mesh target of a node by its index.
+     *
+     * @param i the index of the node
+     * @return the target, or null if the node is not part of the mesh.
+     */
+    public Point2D getMeshTarget(int i) {
+        return meshTable[i];
+    }
+
+    public void clearMeshTarget(Node node) {
+        int i = getIndex(node);
+        if (i >= 0 && meshTable[i] != null) {
+            meshTable[i] = null;
+            modified();
+        }
+    }
+
+    public void clearAllMeshTargets() {
+        Arrays.fill(meshTable, null);
+        modified();
     }
 
     public void clearAllMasses() {
+        Arrays.fill(massTable, 1.0);
         masses.clear();
     }
 
     public Set<Node> getNeighbors(Node a) {
-        return neighbors.get(a);
+        int i = getIndex(a);
+        Set<Connection> incident = i < 0 ? null : incidentTable.get(i);
+        return incident == null ? null : new Neighbors(a, incident);
     }
 
     public ObservableSet<Node> getNodes() {
         return nodes.getReadOnlyProperty();
     }
 
+    /**
+     * Get the index of a node.
+     *
+     * Indices are small non-negative integers that remain fixed while the
+     * node is part of the layout, and are reused after it is removed.
+     *
+     * @param a the node
+     * @return the index, or -1 if the node is not part of the layout.
+     */
+    public int getIndex(Node a) {
+        Integer i = index.get(a);
+        return i == null ? -1 : i;
+    }
+
+    /**
+     * Get the node with a particular index.
+     *
+     * @param i the index
+     * @return the node, or null if no node currently has this index.
+     */
+    public Node getNode(int i) {
+        return indexed[i];
+    }
+
+    /**
+     * Get the number of allocated indices. All node indices are smaller.
+     *
+     * @return the upper bound of node indices.
+     */
+    public int getCapacity() {
+        return indexed.length;
+    }
+
+    /**
+     * Get all connections. Every connected pair of nodes occurs only once.
+     *
+     * @return an unmodifiable view of the connections.
+     */
+    public Collection<Connection> getConnections() {
+        return Collections.unmodifiableCollection(connections.values());
+    }
+
+    /**
+     * Get the springs of all connected pairs, in both orientations (see
+     * getConnections(Node, Node)).
+     *
+     * @return a new set with an entry for (a, b) and for (b, a) of every
+     * connection, whose values are views as returned by that method.
+     */
     public Set<Entry<Pair<Node, Node>, Set<Spring>>> getAllConnections() {
-        return connections.entrySet();
+        Map<Pair<Node, Node>, Set<Spring>> all = new LinkedHashMap<>();
+        for (Connection c : connections.values()) {
+            all.put(new Pair<>(c.getA(), c.getB()), c.getSprings(c.getA()));
+            all.put(new Pair<>(c.getB(), c.getA()), c.getSprings(c.getB()));
+        }
+        return all.entrySet();
+    }
+
+    /**
+     * Look up a connection by its identifier.
+     *
+     * @param id the identifier
+     * @return the connection, or null if no connection has this identifier.
+     */
+    public Connection getConnection(int id) {
+        return connections.get(id);
+    }
+
+    public Set<Tether> getTethers(Node node) {
+        int i = getIndex(node);
+        return i < 0 ? null : tetherTable.get(i);
+    }
+
+    /**
+     * Get the tethers of a node by its index.
+     *
+     * @param i the index of the node
+     * @return the tethers, or null if the node has none.
+     */
+    public Set<Tether> getTethers(int i) {
+        return tetherTable.get(i);
     }
 
     public Set<Entry<Node, Set<Tether>>> getAllTethers() {
+        Map<Node, Set<Tether>> tethers = new HashMap<>();
+        for (int i = 0; i < indexed.length; i++) {
+            if (tetherTable.get(i) != null) {
+                tethers.put(indexed[i], tetherTable.get(i));
+            }
+        }
         return tethers.entrySet();
     }
 
     public void addField(ForceField... field) {
-        fields.addAll(Arrays.asList(field));
+        if (fields.addAll(Arrays.asList(field))) {
+            modified();
+        }
     }
 
     public void removeField(ForceField field) {
-        fields.remove(field);
+        if (fields.remove(field)) {
+            modified();
+        }
     }
 
     public Collection<ForceField> getFields() {
         return fields;
     }
 
+    /**
+     * Get the current revision of the layout.
+     *
+     * The revision changes whenever nodes, connections, tethers or fields are
+     * added or removed, which allows simulations to cache derived data.
+     *
+     * @return a number that changes on every structural modification.
+     */
+    public long getRevision() {
+        return revision.get();
+    }
+
+    /**
+     * Observable revision, which allows modules to respond to structural
+     * modifications.
+     *
+     * @return a read-only observable revision number.
+     */
+    public ReadOnlyLongProperty revisionProperty() {
+        return revision.getReadOnlyProperty();
+    }
+
+    /**
+     * Get the current parameter revision of the layout.
+     *
+     * The parameter revision changes whenever the length, strength or anchors
+     * of a spring or tether in this layout change, which does not change the
+     * structure of the layout. Springs and tethers must only be changed on the
+     * JavaFX Application Thread.
+     *
+     * @return a number that changes on every parameter change.
+     */
+    public long getParameterRevision() {
+        return parameterRevision.get();
+    }
+
+    /**
+     * Observable parameter revision (see getParameterRevision).
+     *
+     * @return a read-only observable revision number.
+     */
+    public ReadOnlyLongProperty parameterRevisionProperty() {
+        return parameterRevision.getReadOnlyProperty();
+    }
+
+    /**
+     * A read-only view of the nodes connected to a particular node.
+     */
+    private final class Neighbors extends AbstractSet<Node> {
+
+        private final Node node;
+        private final Set<Connection> incident;
+
+        Neighbors(Node node, Set<Connection> incident) {
+            this.node = node;
+            this.incident = incident;
+        }
+
+        @Override
+        public Iterator<Node> iterator() {
+            Iterator<Connection> i = incident.iterator();
+            return new Iterator<Node>() {
+                @Override
+                public boolean hasNext() {
+                    return i.hasNext();
+                }
+
+                @Override
+                public Node next() {
+                    return i.next().getOther(node);
+                }
+            };
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return o instanceof Node && getConnection(node, (Node) o) != null;
+        }
+
+        @Override
+        public int size() {
+            return incident.size();
+        }
+    }
 }
@@ -0,0 +1,316 @@
+package layout.panes;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import javafx.geometry.Point2D;
+import javafx.scene.Node;
+import layout.PhysLayout;
+import physics.Spring;
+import physics.SpringMesh;
+import physics.Tether;
+
+/**
+ * Keeps the springs, tethers, mesh targets and masses that a pane adds to its
+ * layout between layout passes.
+ *
+ * A layout pass declares everything it needs between begin() and end().
+ * Unchanged items are kept, changed springs and tethers are updated in place,
+ * and items that were not declared again are removed. Nodes that were not
+ * mentioned at all are removed from the layout.
+ *
+ * @author Christoph Burschka &lt;christoph@burschka.de&gt;
+ */
+final class Connector {
+
+    private final PhysLayout layout;
+    private final Map<Node, Child> children;
+    private int generation = 0;
+
+    Connector(PhysLayout layout) {
+        this.layout = layout;
+        children = new HashMap<>();
+    }
+
+    /**
+     * Start a layout pass.
+     */
+    void begin() {
+        generation++;
+    }
+
+    /**
+     * Connect two nodes by a spring.
+     *
+     * @param a the first node
+     * @param b the second node
+     * @param length the equilibrium length
+     * @param strength the stiffness constant
+     */
+    void connect(Node a, Node b, double length, double strength) {
+        Child ca = child(a), cb = child(b);
+        Edge e = ca.edges.get(b);
+        if (e == null) {
+            e = cb.edges.get(a);
+        }
+        if (e == null) {
+            e = new Edge(a, b);
+            ca.edges.put(b, e);
+        }
+        if (e.spring == null) {
+            e.spring = new Spring(length, strength);
+            layout.addConnection(e.a, e.b, e.spring);
+        } else {
+            // Springs are updated in place, without changing the layout.
+            if (e.spring.getLength() != length) {
+                e.spring.setLength(length);
+            }
+            if (e.spring.getStrength() != strength) {
+                e.spring.setStrength(strength);
+            }
+        }
+        e.generation = generation;
+    }
+
+    /**
+     * Tether a node to a point.
+     *
+     * @param a the node
+     * @param length the equilibrium length
+     * @param strength the stiffness constant
+     * @param anchor the point that the origin of the node is tethered to
+     */
+    void tether(Node a, double length, double strength, Point2D anchor) {
+        Child c = child(a);
+        Tether t = c.tether;
+        if (t == null) {
+            c.tether = new Tether(length, strength, Point2D.ZERO, anchor);
+            layout.addTether(a, c.tether);
+        } else {
+            if (t.getLength() != length) {
+                t.setLength(length);
+            }
+            if (t.getStrength() != strength) {
+                t.setStrength(strength);
+            }
+            if (!t.getFixture().equals(anchor)) {
+                t.setFixture(anchor);
+            }
+        }
+        c.tetherGeneration = generation;
+    }
+
+    /**
+     * Add a node to the layout's spring mesh.
+     *
+     * @param a the node
+     * @param target the target position in the mesh
+     */
+    void target(Node a, Point2D target) {
+        Child c = child(a);
+        if (!target.equals(c.target)) {
+            c.target = target;
+            layout.setMeshTarget(a, target);
+        }
+        c.targetGeneration = generation;
+    }
+
+    /**
+     * Predict where nodes will come to rest after their targets have moved.
+     *
+     * The targets of the previous layout pass are mapped to the new ones by
+     * the scale and offset on each axis that fit them best, and the same map
+     * is applied to the current positions. Nodes without a previous target
+     * keep their positions. The new targets are remembered for the next pass.
+     *
+     * @param nodes the nodes
+     * @param positions the current positions
+     * @param targets the new targets
+     * @return the predicted positions.
+     */
+    Point2D[] predict(List<Node> nodes, Point2D[] positions, Point2D[] targets) {
+        int n = nodes.size();
+        int k = 0;
+        double su = 0, sv = 0, suu = 0, suv = 0;
+        double sp = 0, sq = 0, spp = 0, spq = 0;
+        for (int i = 0; i < n; i++) {
+            Child c = child(nodes.get(i));
+            if (c.place != null) {
+                double u = c.place.getX(), v = targets[i].getX();
+                double p = c.place.getY(), q = targets[i].getY();
+                k++;
+                su += u;
+                sv += v;
+                suu += u * u;
+                suv += u * v;
+                sp += p;
+                sq += q;
+                spp += p * p;
+                spq += p * q;
+            }
+        }
+        double[] x = fit(k, su, sv, suu, suv);
+        double[] y = fit(k, sp, sq, spp, spq);
+
+        Point2D[] predicted = new Point2D[n];
+        for (int i = 0; i < n; i++) {
+            Child c = child(nodes.get(i));
+            if (c.place == null) {
+                predicted[i] = positions[i];
+            } else {
+                predicted[i] = new Point2D(x[0] * positions[i].getX() + x[1], y[0] * positions[i].getY() + y[1]);
+            }
+            c.place = targets[i];
+        }
+        return predicted;
+    }
+
+    /**
+     * Fit v = scale * u + offset by least squares.
+     *
+     * @return the scale and offset.
+     */
+    private static double[] fit(int k, double su, double sv, double suu, double suv) {
+        if (k == 0) {
+            return new double[]{1, 0};
+        }
+        double variance = suu - su * su / k;
+        // Coincident points (such as a single column) only determine an offset.
+        if (variance < 1e-6 * k) {
+            return new double[]{1, (sv - su) / k};
+        }
+        double scale = (suv - su * sv / k) / variance;
+        return new double[]{scale, (sv - scale * su) / k};
+    }
+
+    /**
+     * Set the mass of a node.
+     *
+     * @param a the node
+     * @param m the mass
+     */
+    void mass(Node a, double m) {
+        Child c = child(a);
+        if (c.mass != m) {
+            c.mass = m;
+            layout.setMass(a, m);
+        }
+        c.massGeneration = generation;
+    }
+
+    /**
+     * Set the parameters of the layout's spring mesh.
+     *
+     * @param strength the stiffness constant
+     * @param theta the opening angle, or 0 to disable the mesh.
+     */
+    void mesh(double strength, double theta) {
+        SpringMesh mesh = layout.getMesh();
+        if (theta <= 0) {
+            if (mesh != null) {
+                layout.setMesh(null);
+            }
+        } else if (mesh == null || mesh.getStrength() != strength || mesh.getTheta() != theta) {
+            layout.setMesh(new SpringMesh(strength, theta));
+        }
+    }
+
+    /**
+     * Change the strength of every spring, tether and mesh, without a layout
+     * pass.
+     *
+     * @param strength the stiffness constant
+     */
+    void setStrength(double strength) {
+        for (Child c : children.values()) {
+            for (Edge e : c.edges.values()) {
+                if (e.spring.getStrength() != strength) {
+                    e.spring.setStrength(strength);
+                }
+            }
+            if (c.tether != null && c.tether.getStrength() != strength) {
+                c.tether.setStrength(strength);
+            }
+        }
+        SpringMesh mesh = layout.getMesh();
+        if (mesh != null) {
+            mesh(strength, mesh.getTheta());
+        }
+    }
+
+    /**
+     * Finish a layout pass, and remove everything that was not declared.
+     */
+    void end() {
+        Iterator<Map.Entry<Node, Child>> i = children.entrySet().iterator();
+        while (i.hasNext()) {
+            Map.Entry<Node, Child> entry = i.next();
+            Node node = entry.getKey();
+            Child c = entry.getValue();
+            if (c.generation != generation) {
+                layout.removeNode(node);
+                i.remove();
+            }
+        }
+        for (Map.Entry<Node, Child> entry : children.entrySet()) {
+            Node node = entry.getKey();
+            Child c = entry.getValue();
+            Iterator<Edge> j = c.edges.values().iterator();
+            while (j.hasNext()) {
+                Edge e = j.next();
+                if (e.generation != generation) {
+                    // Springs to a removed node went away with it.
+                    if (children.containsKey(e.b)) {
+                        layout.removeConnection(e.a, e.b, e.spring);
+                    }
+                    j.remove();
+                }
+            }
+            if (c.tether != null && c.tetherGeneration != generation) {
+                layout.removeTether(node, c.tether);
+                c.tether = null;
+            }
+            if (c.target != null && c.targetGeneration != generation) {
+                layout.clearMeshTarget(node);
+                c.target = null;
+            }
+            if (c.mass != 1.0 && c.massGeneration != generation) {
+                layout.clearMass(node);
+                c.mass = 1.0;
+            }
+        }
+    }
+
+    private Child child(Node a) {
+        Child c = children.get(a);
+        if (c == null) {
+            c = new Child();
+            children.put(a, c);
+        }
+        c.generation = generation;
+        return c;
+    }
+
+    private static final class Child {
+
+        private int generation, tetherGeneration, targetGeneration, massGeneration;
+        private Tether tether;
+        private Point2D target;
+        private Point2D place;
+        private double mass = 1.0;
+        private final Map<Node, Edge> edges = new HashMap<>();
+    }
+
+    private static final class Edge {
+
+        private final Node a, b;
+        private Spring spring;
+        private int generation;
+
+        Edge(Node a, Node b) {
+            this.a = a;
+            this.b = b;
+        }
+    }
+}
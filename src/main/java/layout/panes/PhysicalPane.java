@@ -1,5 +1,6 @@
 package layout.panes;
 
+import javafx.beans.property.ObjectProperty;
 import physics.Box2DSpringSimulation;
 
 /**
@@ -12,4 +13,34 @@ public interface PhysicalPane {
     public abstract Box2DSpringSimulation getSimulation();
     public abstract void setStrength(double strength);
     public abstract double getStrength();
+
+    /**
+     * Set the opening angle used to approximate the springs between children.
+     *
+     * If positive, the children are connected by a single approximated spring
+     * mesh instead of a spring for every pair.
+     *
+     * @param theta the opening angle, or 0 to connect every pair exactly.
+     */
+    public abstract void setOpeningAngle(double theta);
+    public abstract double getOpeningAngle();
+
+    /**
+     * The topology determines which pairs of children are connected by
+     * springs. The opening angle only applies to the complete topology.
+     *
+     * @return the topology property.
+     */
+    public abstract ObjectProperty<Topology> topologyProperty();
+    public abstract void setTopology(Topology topology);
+    public abstract Topology getTopology();
+
+    /**
+     * Set the number of following children that each child is connected to
+     * in the nearest topology. With 1, only adjacent siblings are connected.
+     *
+     * @param k the number of neighbors in each direction.
+     */
+    public abstract void setNearestCount(int k);
+    public abstract int getNearestCount();
 }
@@ -1,13 +1,13 @@
 package layout.panes;
 
 import java.util.List;
+import javafx.beans.property.ObjectProperty;
+import javafx.beans.property.SimpleObjectProperty;
 import javafx.geometry.Point2D;
 import javafx.scene.Node;
 import javafx.scene.layout.VBox;
 import layout.PhysLayout;
 import physics.Box2DSpringSimulation;
-import physics.Spring;
-import physics.Tether;
 
 /**
  *
@@ -15,12 +15,28 @@ import physics.Tether;
  */
 public class PhysicalVBox extends VBox implements PhysicalPane {
 
+    // Snapping stops once no child is pulled further than this from its place.
+    private static final double SNAP_TOLERANCE = 1e-3;
+    private static final int SNAP_ITERATIONS = 200;
+
     private final PhysLayout layout;
     private double strength = 50;
+    private double openingAngle = 0;
+    private int nearestCount = 1;
+    private boolean snapping = false;
+    private boolean warmStart = false;
+    private final ObjectProperty<Topology> topology = new SimpleObjectProperty<Topology>(this, "topology", Topology.COMPLETE) {
+        @Override
+        protected void invalidated() {
+            requestLayout();
+        }
+    };
     private final Box2DSpringSimulation simulation;
+    private final Connector connector;
 
     public PhysicalVBox() {
         layout = new PhysLayout(this);
+        connector = new Connector(layout);
         simulation = new Box2DSpringSimulation(layout);
         initialize();
     }
@@ -28,6 +44,7 @@ public class PhysicalVBox extends VBox implements PhysicalPane {
     public PhysicalVBox(Node... children) {
         super(children);
         layout = new PhysLayout(this);
+        connector = new Connector(layout);
         simulation = new Box2DSpringSimulation(layout);
         initialize();
     }
@@ -35,6 +52,7 @@ public class PhysicalVBox extends VBox implements PhysicalPane {
     public PhysicalVBox(double spacing) {
         super(spacing);
         layout = new PhysLayout(this);
+        connector = new Connector(layout);
         simulation = new Box2DSpringSimulation(layout);
         initialize();
     }
@@ -42,6 +60,7 @@ public class PhysicalVBox extends VBox implements PhysicalPane {
     public PhysicalVBox(double spacing, Node... children) {
         super(spacing, children);
         layout = new PhysLayout(this);
+        connector = new Connector(layout);
         simulation = new Box2DSpringSimulation(layout);
         initialize();
     }
@@ -52,8 +71,6 @@ public class PhysicalVBox extends VBox implements PhysicalPane {
 
     @Override
     protected void layoutChildren() {
-        simulation.stopSimulation();
-
         List<Node> managedChildren = getManagedChildren();
         int n = managedChildren.size();
 
@@ -67,28 +84,90 @@ public class PhysicalVBox extends VBox implements PhysicalPane {
         // Perform the layout.
         super.layoutChildren();
 
-        // Determine the new positions, and translate the nodes to their old positions.
+        // Determine the new positions.
+        Point2D[] targets = new Point2D[n];
+        for (int i = 0; i < n; i++) {
+            Node child = managedChildren.get(i);
+            targets[i] = new Point2D(child.getLayoutX(), child.getLayoutY());
+        }
+
+        // Translate the nodes to their old positions, or to where the old
+        // layout would be after the same change, so only the rest is animated.
+        connector.begin();
+        Point2D[] predicted = connector.predict(managedChildren, positions, targets);
+        Point2D[] start = warmStart ? predicted : positions;
         for (int i = 0; i < n; i++) {
             Node child = managedChildren.get(i);
-            Point2D newPosition = new Point2D(child.getLayoutX(), child.getLayoutY());
-            child.setTranslateX(positions[i].getX() - newPosition.getX());
-            child.setTranslateY(positions[i].getY() - newPosition.getY());
-            positions[i] = newPosition;
+            child.setTranslateX(start[i].getX() - targets[i].getX());
+            child.setTranslateY(start[i].getY() - targets[i].getY());
+        }
+        if (warmStart) {
+            // The nodes were moved, not thrown.
+            simulation.updateModel();
         }
+        positions = targets;
 
-        // Reconnect the nodes.
-        layout.clearAllConnections();
-        layout.clearAllTethers();
+        // Update only the connections that have changed.
+        final boolean complete = topology.get() == Topology.COMPLETE;
+        final boolean mesh = complete && openingAngle > 0;
+        connector.mesh(strength, mesh ? openingAngle : 0);
 
         for (int i = 0; i < n; i++) {
-            layout.addTether(managedChildren.get(i), new Tether(0, strength, positions[i]));
-            for (int j = 0; j < i; j++) {
+            connector.tether(managedChildren.get(i), 0, strength, positions[i]);
+            if (mesh) {
+                connector.target(managedChildren.get(i), positions[i]);
+                continue;
+            }
+            // In the nearest topology, connect only the preceding nearestCount children.
+            for (int j = complete ? 0 : Math.max(0, i - nearestCount); j < i; j++) {
                 double distance = positions[i].distance(positions[j]);
-                layout.addConnection(managedChildren.get(i), managedChildren.get(j), new Spring(distance, strength));
+                connector.connect(managedChildren.get(i), managedChildren.get(j), distance, strength);
             }
         }
+        connector.end();
 
-        simulation.startSimulation();
+        // Jump to the new layout, leaving the nodes at rest.
+        if (snapping) {
+            simulation.minimize(SNAP_TOLERANCE * strength, SNAP_ITERATIONS);
+        }
+
+        // The simulation keeps running across layout passes.
+        if (!simulation.isRunning()) {
+            simulation.startSimulation();
+        }
+    }
+
+    /**
+     * Set whether the children jump straight to their new positions after
+     * each layout pass, such as after a resize, instead of moving there.
+     *
+     * @param snapping true to snap to the new layout.
+     */
+    public void setSnapping(boolean snapping) {
+        this.snapping = snapping;
+        this.requestLayout();
+    }
+
+    public boolean isSnapping() {
+        return snapping;
+    }
+
+    /**
+     * Set whether the children follow a change of the layout at once, as far
+     * as it can be described by a scale and offset on each axis, so that
+     * only the remaining difference is animated.
+     *
+     * This is off by default, so that the children keep moving from where
+     * they were shown, as they always have.
+     *
+     * @param warmStart true to move the children with the layout.
+     */
+    public void setWarmStart(boolean warmStart) {
+        this.warmStart = warmStart;
+    }
+
+    public boolean isWarmStart() {
+        return warmStart;
     }
 
     @Override
@@ -99,11 +178,49 @@ public class PhysicalVBox extends VBox implements PhysicalPane {
     @Override
     public void setStrength(double strength) {
         this.strength = strength;
-        this.requestLayout();
+        // Strength does not affect the layout, so the springs are updated in place.
+        connector.setStrength(strength);
     }
 
     @Override
     public double getStrength() {
         return strength;
     }
+
+    @Override
+    public void setOpeningAngle(double theta) {
+        this.openingAngle = theta;
+        this.requestLayout();
+    }
+
+    @Override
+    public double getOpeningAngle() {
+        return openingAngle;
+    }
+
+    @Override
+    public ObjectProperty<Topology> topologyProperty() {
+        return topology;
+    }
+
+    @Override
+    public void setTopology(Topology topology) {
+        this.topology.set(topology);
+    }
+
+    @Override
+    public Topology getTopology() {
+        return topology.get();
+    }
+
+    @Override
+    public void setNearestCount(int k) {
+        this.nearestCount = k;
+        this.requestLayout();
+    }
+
+    @Override
+    public int getNearestCount() {
+        return nearestCount;
+    }
 }
@@ -0,0 +1,21 @@
+package layout.panes;
+
+/**
+ * Selects which pairs of children a physical pane connects with springs.
+ *
+ * @author Christoph Burschka &lt;christoph@burschka.de&gt;
+ */
+public enum Topology {
+
+    /**
+     * Every pair of children is connected. This holds the arrangement most
+     * rigidly, but the number of springs grows quadratically.
+     */
+    COMPLETE,
+    /**
+     * Each child is connected only to the nearest children in layout order
+     * (see PhysicalPane.setNearestCount). The number of springs grows
+     * linearly.
+     */
+    NEAREST
+}
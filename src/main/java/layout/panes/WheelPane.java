@@ -3,6 +3,7 @@ package layout.panes;
 import java.util.List;
 import javafx.beans.property.ObjectProperty;
 import javafx.beans.property.ObjectPropertyBase;
+import javafx.beans.property.SimpleObjectProperty;
 import javafx.collections.ListChangeListener;
 import javafx.geometry.Bounds;
 import javafx.geometry.Point2D;
@@ -10,8 +11,6 @@ import javafx.scene.Node;
 import javafx.scene.layout.Pane;
 import layout.PhysLayout;
 import physics.Box2DSpringSimulation;
-import physics.Spring;
-import physics.Tether;
 
 /**
  * Use one node as the center and orient the other nodes around it in clockwise
@@ -24,13 +23,23 @@ public class WheelPane extends Pane implements PhysicalPane {
     public final ObjectProperty<Node> center;
     private final PhysLayout layout;
     private final Box2DSpringSimulation simulation;
+    private final Connector connector;
     private double radius;
     private double strength = 50;
     private double spacing = 0;
+    private double openingAngle = 0;
+    private int nearestCount = 1;
+    private final ObjectProperty<Topology> topology = new SimpleObjectProperty<Topology>(this, "topology", Topology.COMPLETE) {
+        @Override
+        protected void invalidated() {
+            requestLayout();
+        }
+    };
 
     public WheelPane() {
         center = new CenterProperty();
         layout = new PhysLayout(this);
+        connector = new Connector(layout);
         simulation = new Box2DSpringSimulation(layout);
         radius = Math.min(this.getWidth() * 0.5, this.getHeight() * 0.5);
         simulation.setFriction(2);
@@ -38,15 +47,16 @@ public class WheelPane extends Pane implements PhysicalPane {
 
     @Override
     protected void layoutChildren() {
-        simulation.stopSimulation();
-
         super.layoutChildren();
         final Node c = center.get();
 
-        layout.clearAllMasses();
-        layout.clearAllConnections();
+        // Only the connections that have changed are updated.
+        final boolean complete = topology.get() == Topology.COMPLETE;
+        final boolean mesh = complete && openingAngle > 0;
+        connector.begin();
+        connector.mesh(strength, mesh ? openingAngle : 0);
         if (c != null) {
-            layout.setMass(c, Double.POSITIVE_INFINITY);
+            connector.mass(c, Double.POSITIVE_INFINITY);
         }
 
         final List<Node> managedChildren = getManagedChildren();
@@ -88,30 +98,65 @@ public class WheelPane extends Pane implements PhysicalPane {
         final double circumference = s + children.length * spacing;
         final double r = Math.max(radius, Math.max(diameter * 0.5, circumference * 0.5 / Math.PI));
 
+        if (mesh) {
+            /**
+             * Place the children on the circle, so that the distances between
+             * their targets are the chords between them (see below).
+             */
+            double arc = children.length > 0 ? diags[0] * 0.5 : 0;
+            for (int i = 0; i < children.length; i++) {
+                final double angle = 2 * Math.PI * arc / circumference;
+                connector.target(children[i], new Point2D(r * Math.cos(angle), r * Math.sin(angle)));
+                if (c == null) {
+                    connector.tether(children[i], r, strength, Point2D.ZERO);
+                }
+                arc += (diags[i] + diags[(i + 1) % children.length]) * 0.5 + spacing;
+            }
+            if (c != null) {
+                connector.target(c, Point2D.ZERO);
+            }
+            finishLayout();
+            return;
+        }
+
         /**
          * Connect the children by springs of the appropriate length. Every
          * (adjacent and non-adjacent) pair of surrounding nodes is connected by
-         * a spring that matches the length of the chord between them.
+         * a spring that matches the length of the chord between them. In the
+         * nearest topology, only the following nearestCount nodes are.
          */
+        final int count = complete ? children.length : Math.min(nearestCount + 1, children.length);
         for (int _i = 0; _i < children.length; _i++) {
             double d = spacing;
-            for (int j = 1; j < children.length; j++) {
+            for (int j = 1; j < count; j++) {
                 // The arc in proportion to the calculated circumference is half the endpoints' sizes plus all the space between them:
                 final double arcSection = (d + (diags[_i] + diags[(_i + j) % children.length]) * 0.5) / circumference;
                 // chord length on the unit circle is twice the sine of half the angle:
                 final double chordLength = 2 * r * Math.sin(arcSection * Math.PI);
-                layout.addConnection(children[_i], children[(_i + j) % children.length], new Spring(chordLength, strength));
+                // Pairs that are also reached from the other node are connected only once.
+                if (children.length - j >= count || (_i + j) % children.length > _i) {
+                    connector.connect(children[_i], children[(_i + j) % children.length], chordLength, strength);
+                }
                 d += diags[(_i + j) % children.length] + spacing;
             }
             if (c != null) {
-                layout.addConnection(c, children[_i], new Spring(r, strength));
+                connector.connect(c, children[_i], r, strength);
             } else {
                 // Without a center node, fix nodes to the center of the pane instead.
-                layout.addTether(children[_i], new Tether(r, strength, Point2D.ZERO));
+                connector.tether(children[_i], r, strength, Point2D.ZERO);
             }
         }
 
-        simulation.startSimulation();
+        finishLayout();
+    }
+
+    private void finishLayout() {
+        connector.end();
+
+        // The simulation keeps running across layout passes.
+        if (!simulation.isRunning()) {
+            simulation.startSimulation();
+        }
     }
 
     public final void setCenter(Node value) {
@@ -130,7 +175,8 @@ public class WheelPane extends Pane implements PhysicalPane {
     @Override
     public void setStrength(double strength) {
         this.strength = strength;
-        requestLayout();
+        // Strength does not affect the layout, so the springs are updated in place.
+        connector.setStrength(strength);
     }
 
     @Override
@@ -138,6 +184,43 @@ public class WheelPane extends Pane implements PhysicalPane {
         return strength;
     }
 
+    @Override
+    public void setOpeningAngle(double theta) {
+        this.openingAngle = theta;
+        requestLayout();
+    }
+
+    @Override
+    public double getOpeningAngle() {
+        return openingAngle;
+    }
+
+    @Override
+    public ObjectProperty<Topology> topologyProperty() {
+        return topology;
+    }
+
+    @Override
+    public void setTopology(Topology topology) {
+        this.topology.set(topology);
+    }
+
+    @Override
+    public Topology getTopology() {
+        return topology.get();
+    }
+
+    @Override
+    public void setNearestCount(int k) {
+        this.nearestCount = k;
+        requestLayout();
+    }
+
+    @Override
+    public int getNearestCount() {
+        return nearestCount;
+    }
+
     /**
      * Inner class tracking the pane's central node (see
      * javafx.layout.scene.layout.BorderPane).
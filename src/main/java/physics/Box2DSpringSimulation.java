@@ -1,42 +1,146 @@
 package physics;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
 import javafx.animation.AnimationTimer;
+import javafx.beans.InvalidationListener;
+import javafx.beans.Observable;
 import javafx.beans.property.ReadOnlyBooleanProperty;
 import javafx.beans.property.ReadOnlyBooleanWrapper;
+import javafx.beans.property.ReadOnlyDoubleProperty;
+import javafx.beans.property.ReadOnlyDoubleWrapper;
 import javafx.collections.MapChangeListener;
 import javafx.collections.SetChangeListener;
+import javafx.geometry.Bounds;
 import javafx.geometry.Point2D;
 import javafx.scene.Node;
+import javafx.scene.Scene;
+import javafx.stage.Window;
 import layout.PhysLayout;
-import org.jbox2d.collision.shapes.MassData;
 import org.jbox2d.collision.shapes.Shape;
-import org.jbox2d.common.Vec2;
-import org.jbox2d.dynamics.Body;
-import org.jbox2d.dynamics.BodyDef;
-import org.jbox2d.dynamics.BodyType;
-import org.jbox2d.dynamics.World;
+import physics.engine.Integrator;
+import physics.engine.SpringEngine;
 import physics.shapes.NodeShapeBuilder;
 
 /**
- * Manage a JBox2D simulation of multiple JavaFX nodes. Nodes have no collision,
- * and are moved by applying forces (from mechanical springs and forcefields).
+ * Manage a JBox2D simulation of multiple JavaFX nodes. Nodes are moved by
+ * applying forces (from mechanical springs and forcefields). Nodes with a shape
+ * collide in the JBox2D world; the EULER and IMPLICIT integrators skip the
+ * world entirely.
+ *
+ * This binds a layout to a SpringEngine: the springs, tethers, mesh and fields
+ * of the layout are loaded into the engine whenever they change, and the
+ * engine is stepped by an AnimationTimer.
+ *
+ * In threaded mode, the engine is stepped by a worker thread instead. All
+ * changes to the engine are then passed to the worker through a queue, and
+ * the worker publishes the positions of all nodes after each batch of steps.
+ * The AnimationTimer only applies the latest published positions, so a slow
+ * step does not block the JavaFX Application Thread.
+ *
+ * Nodes that are connected by springs or the spring mesh form an island,
+ * which the engine puts to sleep once it has come to rest, while the others
+ * keep moving. Only the forces that actually changed are reloaded, so a change
+ * wakes only the islands it affects. Once every island is asleep, the
+ * simulation falls asleep and stops its AnimationTimer. It wakes up when a node
+ * is moved or pressed, when the layout or a mass changes, or when wake() is
+ * called.
+ *
+ * Instead of its own AnimationTimer and worker thread, a simulation can be
+ * driven by a SimulationScheduler that is shared with other simulations.
+ *
+ * The simulation tracks whether the pane of its layout can be seen: it must be
+ * in the scene of a showing window, it and its ancestors must be visible, and
+ * it must overlap the scene and the clips of its ancestors (such as the
+ * viewport of a ScrollPane). While it cannot be seen, the simulation is
+ * paused, and it resumes where it left off once it is shown again.
+ *
+ * Normally, each frame simulates the time that has passed since the previous
+ * one. In deterministic mode, each frame simulates a fixed interval instead,
+ * so the same layout and the same changes always lead to the same positions,
+ * regardless of the frame rate or the speed of the machine.
  *
  * @author Christoph Burschka &lt;christoph@burschka.de&gt;
  */
 public class Box2DSpringSimulation {
 
     private final PhysLayout layout;
-    private final Map<Node, Body> bodies;
-    private final World world;
-    private double friction = 0.5;
+    private final SpringEngine engine;
     private AnimationTimer animation;
-    private long timeStep = (long) 1e6, timeStamp = 0;
-    private static final int ITER_VELOCITY = 6, ITER_POS = 3;
+    private volatile long timeStep = (long) 1e6;
+    private long timeStamp = 0;
+    private long pulseTime;
+    private volatile int maxStepsPerFrame = Integer.MAX_VALUE;
+    private volatile long frameBudget = Long.MAX_VALUE;
+    private volatile Overload overload = Overload.DROP;
+    private final AtomicLong droppedTime = new AtomicLong();
+    private final AtomicReference<double[][]> spareParameters = new AtomicReference<>();
+    private volatile boolean adaptive = false;
+    private volatile boolean deterministic = false;
+    private long frameInterval = (long) (1e9 / 60), simulatedTime = 0;
+    private volatile long minTimeStep = (long) 1e4, maxTimeStep = (long) 5e7;
+    private volatile double maxDisplacement = 0.5;
+    private final ReadOnlyDoubleWrapper frameTimeStep = new ReadOnlyDoubleWrapper(1e-3);
     private static final double DRAG_SPEED = 1.5;
+    // The most steps taken to fast-forward a simulation that is shown again.
+    private static final int FAST_FORWARD_STEPS = 10000;
     private final ReadOnlyBooleanWrapper running = new ReadOnlyBooleanWrapper(false);
+    private final ReadOnlyBooleanWrapper asleep = new ReadOnlyBooleanWrapper(false);
+    private volatile double sleepVelocity = 0.1, sleepEnergy = 1, sleepTime = 0.5;
+    private boolean waking;
+    private boolean frameAsleep;
+    private final InvalidationListener waker = (observable) -> {
+        wake();
+    };
+
+    // Owned by whichever thread steps the engine:
+    private int[] ids = new int[0];
+    private int[] springIds = new int[0], tetherIds = new int[0];
+    private int[] applied = new int[0];
+    private double steppedTimeStep = Double.NaN;
+    private long stableTimeStep = (long) 1e6;
+    private Map<SpringKey, Integer> springKeys = new LinkedHashMap<>(), tetherKeys = new LinkedHashMap<>();
+    private ForceField[] loadedFields = new ForceField[0];
+
+    // Owned by the JavaFX Application Thread:
+    private ForceSnapshot forces;
+    private long modifications;
+    private boolean threaded = false;
+    private Thread worker;
+    private SimulationScheduler scheduler;
+    private volatile int priority = 0;
+    private boolean animating;
+    private final ReadOnlyBooleanWrapper shown = new ReadOnlyBooleanWrapper(true);
+    private boolean pausedWhenHidden = true;
+    private boolean fastForward = false;
+    private boolean suspended;
+    private final List<Observable> watched = new ArrayList<>();
+    private volatile SimulationMetrics metrics;
+    private final InvalidationListener visibilityWatcher = (observable) -> {
+        updateVisibility();
+    };
+    private final InvalidationListener ancestryWatcher = (observable) -> {
+        watchAncestry();
+    };
+    private int[] sent = new int[0];
+    private double[] shownX = new double[0], shownY = new double[0];
+    private boolean[] held = new boolean[0];
+
+    private final Queue<Runnable> commands = new ConcurrentLinkedQueue<>();
+    private volatile boolean stopping;
+    private final Object frameLock = new Object();
+    private Frame front, back;
+    private boolean fresh;
 
     /**
      * Create a new simulation for a particular layout.
@@ -45,40 +149,54 @@ public class Box2DSpringSimulation {
      */
     public Box2DSpringSimulation(PhysLayout layout) {
         this.layout = layout;
-        bodies = new HashMap<>();
-
-        // New zero-gravity world:
-        world = new World(new Vec2(0, 0));
+        engine = new SpringEngine();
+        engine.setSleepVelocity(sleepVelocity);
+        engine.setSleepEnergy(sleepEnergy);
+        engine.setSleepTime(sleepTime);
 
-        layout.getNodes().stream().forEach((node) -> {
-            createBody(node);
-        });
+        // Create the bodies in order of their index, so the same layout always
+        // gives the same bodies.
+        for (int i = 0; i < layout.getCapacity(); i++) {
+            Node node = layout.getNode(i);
+            if (node != null) {
+                createBody(node);
+            }
+        }
 
         layout.getNodes().addListener((SetChangeListener.Change<? extends Node> change) -> {
             if (change.wasAdded()) {
                 createBody(change.getElementAdded());
             }
             if (change.wasRemoved()) {
-                world.destroyBody(bodies.get(change.getElementRemoved()));
-                bodies.remove(change.getElementRemoved());
+                unwatch(change.getElementRemoved());
+                int i = layout.getIndex(change.getElementRemoved());
+                submit(() -> {
+                    // This removes the springs and tethers of the body as well.
+                    engine.removeBody(ids[i]);
+                    ids[i] = -1;
+                    springKeys.keySet().removeIf((key) -> key.a == i || key.b == i);
+                    tetherKeys.keySet().removeIf((key) -> key.a == i);
+                });
             }
         });
 
         layout.getMasses().addListener((MapChangeListener.Change<? extends Node, ? extends Double> change) -> {
             Node node = change.getKey();
-            Body body = bodies.get(node);
-            if (body != null) {
-                if (change.wasAdded() && change.getValueAdded().isInfinite()) {
-                    body.setType(BodyType.STATIC);
-                } else if (change.wasRemoved() && change.getValueRemoved().isInfinite()) {
-                    body.setType(BodyType.DYNAMIC);
+            int i = layout.getIndex(node);
+            double mass = layout.getMass(node);
+            submit(() -> {
+                if (i >= 0 && i < ids.length && ids[i] >= 0) {
+                    engine.setMass(ids[i], mass);
                 }
-                body.destroyFixture(body.getFixtureList());
-                createBodyFixture(node, body);
-            }
+            });
+            wake();
         });
 
+        layout.revisionProperty().addListener(waker);
+        layout.parameterRevisionProperty().addListener(waker);
+
         this.createAnimation();
+        watchAncestry();
     }
 
     /**
@@ -96,20 +214,79 @@ public class Box2DSpringSimulation {
     }
 
     private void createBody(Node node) {
-        BodyDef def = new BodyDef();
-        def.position.set((float) node.getLayoutX(), (float) node.getLayoutY());
-        // Infinite-mass bodies are immovable.
-        def.type = layout.getMass(node) == Double.POSITIVE_INFINITY ? BodyType.STATIC : BodyType.DYNAMIC;
-        Body body = world.createBody(def);
-        createBodyFixture(node, body);
-        bodies.put(node, body);
+        int i = layout.getIndex(node);
+        double x = node.getLayoutX();
+        double y = node.getLayoutY();
+        double mass = layout.getMass(node);
+        Shape shape = NodeShapeBuilder.createShape(node);
+        watch(node);
+        growView(layout.getCapacity());
+        shownX[i] = x;
+        shownY[i] = y;
+        held[i] = false;
+        int seq = ++sent[i];
+        submit(() -> {
+            if (i >= ids.length) {
+                int old = ids.length;
+                ids = Arrays.copyOf(ids, Math.max(i + 1, 2 * old));
+                Arrays.fill(ids, old, ids.length, -1);
+                applied = Arrays.copyOf(applied, ids.length);
+            }
+            ids[i] = engine.createBody(x, y, mass, shape);
+            applied[i] = seq;
+        });
+    }
+
+    /**
+     * Wake the simulation when a node is moved or pressed.
+     */
+    private void watch(Node node) {
+        node.layoutXProperty().addListener(waker);
+        node.layoutYProperty().addListener(waker);
+        node.translateXProperty().addListener(waker);
+        node.translateYProperty().addListener(waker);
+        node.pressedProperty().addListener(waker);
     }
 
-    private void createBodyFixture(Node node, Body body) {
-        Shape s = NodeShapeBuilder.createShape(node);
-        MassData m = new MassData();
-        s.computeMass(m, 1);
-        body.createFixture(s, (float) layout.getMass(node) / m.mass);
+    private void unwatch(Node node) {
+        node.layoutXProperty().removeListener(waker);
+        node.layoutYProperty().removeListener(waker);
+        node.translateXProperty().removeListener(waker);
+        node.translateYProperty().removeListener(waker);
+        node.pressedProperty().removeListener(waker);
+    }
+
+    private void growView(int capacity) {
+        if (capacity > sent.length) {
+            sent = Arrays.copyOf(sent, capacity);
+            shownX = Arrays.copyOf(shownX, capacity);
+            shownY = Arrays.copyOf(shownY, capacity);
+            held = Arrays.copyOf(held, capacity);
+        }
+    }
+
+    /**
+     * Change the engine, or pass the change to the worker thread if it is
+     * running.
+     */
+    private void submit(Runnable command) {
+        if (worker == null) {
+            command.run();
+        } else {
+            commands.add(command);
+            LockSupport.unpark(worker);
+        }
+    }
+
+    /**
+     * Get the engine that simulates the layout.
+     *
+     * The engine must not be used while a threaded simulation is running.
+     *
+     * @return the engine; its bodies do not correspond to node indices.
+     */
+    public SpringEngine getEngine() {
+        return engine;
     }
 
     /**
@@ -118,7 +295,7 @@ public class Box2DSpringSimulation {
      * @return the friction, as the proportion of velocity and opposing force.
      */
     public double getFriction() {
-        return this.friction;
+        return engine.getFriction();
     }
 
     /**
@@ -128,18 +305,115 @@ public class Box2DSpringSimulation {
      * force.
      */
     public final void setFriction(double friction) {
-        this.friction = friction;
+        submit(() -> {
+            engine.setFriction(friction);
+        });
+    }
+
+    /**
+     * Push apart nodes whose shapes overlap (see
+     * SpringEngine.setOverlapRepulsion). This is much cheaper than letting the
+     * nodes collide, and also works with the EULER integrator.
+     *
+     * @param strength the force per unit of overlap, or 0 to disable.
+     */
+    public void setOverlapRepulsion(double strength) {
+        submit(() -> {
+            engine.setOverlapRepulsion(strength);
+        });
+    }
+
+    /**
+     * Choose how the nodes are moved (see Integrator). With EULER or
+     * IMPLICIT, the JBox2D world is not stepped, and nodes do not collide.
+     * IMPLICIT stays stable with stiff springs even at one step per frame
+     * (for example, setTimeStep(1 / 60.)).
+     *
+     * @param integrator the integrator.
+     */
+    public void setIntegrator(Integrator integrator) {
+        submit(() -> {
+            engine.setIntegrator(integrator);
+        });
+    }
+
+    /**
+     * Evaluate forces on a pool of threads once the layout has enough nodes
+     * (see SpringEngine.setPool).
+     *
+     * @param pool the pool, or null to evaluate forces on the stepping thread.
+     * @param threshold the number of nodes from which the pool is used.
+     */
+    public void setParallel(ForkJoinPool pool, int threshold) {
+        submit(() -> {
+            engine.setPool(pool);
+            engine.setParallelThreshold(threshold);
+        });
     }
 
     /**
      * Execute one simulated time step, according to the current time step
      * length.
+     *
+     * This must not be called while a threaded simulation is running.
      */
     public void step() {
-        // Box2D physics work by applying a fixed force on every timestep.
-        applyAllForces();
-        // 6 iterations of u' and 3 iterations of u (recommended value).
-        world.step((float) (timeStep * 1e-9), ITER_VELOCITY, ITER_POS);
+        synchronize();
+        engine.step(timeStep * 1e-9);
+    }
+
+    /**
+     * Compute the final layout without animating it.
+     *
+     * The engine is stepped as fast as possible until every island of nodes
+     * has come to rest (see SpringEngine.settle), and the nodes are then
+     * moved to their final positions once. This uses the fixed time step and
+     * the current integrator. A running simulation continues from the settled
+     * layout, and falls asleep if nothing else moves.
+     *
+     * @param tolerance the kinetic energy below which an island is at rest.
+     * @param maxSteps the most steps to take.
+     * @return true if the layout came to rest.
+     */
+    public boolean settle(double tolerance, int maxSteps) {
+        return offScreen(() -> engine.settle(timeStep * 1e-9, tolerance, maxSteps));
+    }
+
+    /**
+     * Move the nodes straight to the equilibrium of the forces.
+     *
+     * The potential energy of the springs, tethers and force fields is
+     * minimised directly (see SpringEngine.minimize), which is much faster
+     * than settling, especially for stiff springs, and the nodes are then
+     * moved to their final positions once. Collisions between node shapes
+     * are ignored. For a layout that is far from equilibrium, settling with a
+     * loose tolerance first and minimising afterwards finds the same layout
+     * that the animation would have reached.
+     *
+     * @param tolerance the largest force left on any node.
+     * @param maxIterations the most iterations to take.
+     * @return true if the layout reached equilibrium.
+     */
+    public boolean minimize(double tolerance, int maxIterations) {
+        return offScreen(() -> engine.minimize(tolerance, maxIterations));
+    }
+
+    /**
+     * Run a computation on the engine with the current model, and show its
+     * result. A running worker is paused meanwhile.
+     */
+    private boolean offScreen(BooleanSupplier computation) {
+        boolean restart = worker != null;
+        stopWorker();
+        updateModel();
+        synchronize();
+        boolean result = computation.getAsBoolean();
+        updateView();
+        timeStamp = now();
+        if (restart) {
+            startWorker();
+        }
+        return result;
     }
 
     /**
@@ -155,29 +429,84 @@ public class Box2DSpringSimulation {
      * displaced elements will lose their momentum.
      */
     public void updateModel(long timeInterval) {
-        bodies.entrySet().stream().forEach((e) -> {
-            Node node = e.getKey();
-            Body body = e.getValue();
-            Vec2 relative = new Vec2((float) node.getLayoutX(), (float) node.getLayoutY());
-            relative.addLocal(new Vec2((float) node.getTranslateX(), (float) node.getTranslateY()));
-            relative.subLocal(body.getPosition());
+        if (worker != null) {
+            sendModel(timeInterval);
+            return;
+        }
+        for (int i = 0; i < ids.length; i++) {
+            int id = ids[i];
+            if (id < 0) {
+                continue;
+            }
+            Node node = layout.getNode(i);
+            float dx = (float) node.getLayoutX() + (float) node.getTranslateX() - (float) engine.getX(id);
+            float dy = (float) node.getLayoutY() + (float) node.getTranslateY() - (float) engine.getY(id);
 
             // If the node has been moved externally or pressed, update.
-            if (relative.length() > 1e-3) {
-                Vec2 p = body.getTransform().p;
-                body.setTransform(p.add(relative), body.getAngle());
+            if (Math.sqrt(dx * dx + dy * dy) > 1e-3) {
+                engine.setPosition(id, engine.getX(id) + dx, engine.getY(id) + dy);
                 // Use last timestep to set momentum.
                 if (isRunning() && timeInterval > 0 && !node.isPressed()) {
-                    body.setLinearVelocity(relative.mul((float) (DRAG_SPEED * 1e9 / timeInterval)));
+                    float f = (float) (DRAG_SPEED * 1e9 / timeInterval);
+                    engine.setVelocity(id, dx * f, dy * f);
                 } else {
-                    body.setLinearVelocity(new Vec2());
+                    engine.setVelocity(id, 0, 0);
                 }
             } // Elements must not move while they are held with the mouse.
             else if (node.isPressed()) {
-                body.setLinearVelocity(new Vec2());
+                engine.setVelocity(id, 0, 0);
             }
-            body.setActive(!node.isPressed());
-        });
+            engine.setActive(id, !node.isPressed());
+        }
+    }
+
+    /**
+     * Pass the nodes that were moved externally or pressed to the worker.
+     *
+     * Nodes are compared with the positions last applied to them.
+     */
+    private void sendModel(long timeInterval) {
+        int capacity = Math.min(layout.getCapacity(), sent.length);
+        for (int i = 0; i < capacity; i++) {
+            Node node = layout.getNode(i);
+            if (node == null) {
+                continue;
+            }
+            double x = node.getLayoutX() + node.getTranslateX();
+            double y = node.getLayoutY() + node.getTranslateY();
+            double dx = x - shownX[i];
+            double dy = y - shownY[i];
+            boolean pressed = node.isPressed();
+            final int index = i;
+            if (Math.sqrt(dx * dx + dy * dy) > 1e-3) {
+                double f = isRunning() && timeInterval > 0 && !pressed ? DRAG_SPEED * 1e9 / timeInterval : 0;
+                shownX[i] = x;
+                shownY[i] = y;
+                held[i] = pressed;
+                int seq = ++sent[i];
+                submit(() -> {
+                    int id = ids[index];
+                    if (id >= 0) {
+                        engine.setPosition(id, x, y);
+                        engine.setVelocity(id, dx * f, dy * f);
+                        engine.setActive(id, !pressed);
+                        applied[index] = seq;
+                    }
+                });
+            } else if (pressed != held[i]) {
+                // Elements must not move while they are held with the mouse.
+                held[i] = pressed;
+                submit(() -> {
+                    int id = ids[index];
+                    if (id >= 0) {
+                        if (pressed) {
+                            engine.setVelocity(id, 0, 0);
+                        }
+                        engine.setActive(id, !pressed);
+                    }
+                });
+            }
+        }
     }
 
     /**
@@ -194,32 +523,443 @@ public class Box2DSpringSimulation {
      * Relocate the JavaFX nodes according to their simulated movement.
      */
     public void updateView() {
-        bodies.entrySet().stream().forEach((e) -> {
-            Vec2 p = e.getValue().getPosition()
-                    .sub(new Vec2((float) e.getKey().getLayoutX(), (float) e.getKey().getLayoutY()));
-            e.getKey().setTranslateX(p.x);
-            e.getKey().setTranslateY(p.y);
-        });
+        if (worker != null) {
+            receiveView();
+            return;
+        }
+        for (int i = 0; i < ids.length; i++) {
+            if (ids[i] >= 0) {
+                Node node = layout.getNode(i);
+                node.setTranslateX(engine.getX(ids[i]) - (float) node.getLayoutX());
+                node.setTranslateY(engine.getY(ids[i]) - (float) node.getLayoutY());
+            }
+        }
+    }
+
+    /**
+     * Apply the positions last published by the worker.
+     *
+     * Nodes whose latest move has not reached the worker yet are skipped, so
+     * that they do not jump back.
+     */
+    private void receiveView() {
+        synchronized (frameLock) {
+            if (!fresh) {
+                return;
+            }
+            fresh = false;
+            Frame f = front;
+            frameAsleep = f.asleep;
+            if (!Double.isNaN(f.timeStep)) {
+                frameTimeStep.set(f.timeStep);
+            }
+            int capacity = Math.min(Math.min(f.count, layout.getCapacity()), sent.length);
+            for (int i = 0; i < capacity; i++) {
+                Node node = layout.getNode(i);
+                if (node == null || f.seq[i] != sent[i] || Double.isNaN(f.x[i])) {
+                    continue;
+                }
+                node.setTranslateX(f.x[i] - (float) node.getLayoutX());
+                node.setTranslateY(f.y[i] - (float) node.getLayoutY());
+                shownX[i] = node.getLayoutX() + node.getTranslateX();
+                shownY[i] = node.getLayoutY() + node.getTranslateY();
+            }
+        }
     }
 
     private void createAnimation() {
         animation = new AnimationTimer() {
             @Override
             public void handle(long now) {
-                long nextTimeStamp = timeStamp + timeStep;
+                now = nextFrame(now);
+                if (waking) {
+                    // Nodes moved while asleep keep no momentum.
+                    waking = false;
+                    updateModel();
+                    timeStamp = now;
+                    frameAsleep = false;
+                    if (threaded) {
+                        startWorker();
+                    }
+                }
+                if (worker != null) {
+                    // The worker is stepping; only exchange changes with it.
+                    updateModel(now - timeStamp);
+                    timeStamp = now;
+                    synchronize();
+                    updateView();
+                    updateMetrics();
+                    checkRest(frameAsleep);
+                    return;
+                }
 
                 // Simulate in dt-sized steps until caught up.
                 updateModel(now - timeStamp);
-                while (nextTimeStamp < now) {
-                    step();
-                    timeStamp = nextTimeStamp;
-                    nextTimeStamp = timeStamp + timeStep;
+                timeStamp = advance(timeStamp, now, true);
+                if (!Double.isNaN(steppedTimeStep)) {
+                    frameTimeStep.set(steppedTimeStep);
                 }
                 updateView();
+                updateMetrics();
+                checkRest(engine.isAsleep());
             }
         };
     }
 
+    /**
+     * Exchange changes with the layout at the start of a scheduler pulse.
+     *
+     * @param now the time of the pulse.
+     */
+    void prepareFrame(long now) {
+        now = nextFrame(now);
+        pulseTime = now;
+        if (waking) {
+            // Nodes moved while asleep keep no momentum.
+            waking = false;
+            updateModel();
+            timeStamp = now;
+        }
+        updateModel(now - timeStamp);
+        synchronize();
+    }
+
+    /**
+     * Step the engine until it has caught up with a scheduler pulse. This may
+     * run on any thread, between prepareFrame and finishFrame.
+     */
+    void stepFrame() {
+        timeStamp = advance(timeStamp, pulseTime, false);
+    }
+
+    /**
+     * Apply the positions at the end of a scheduler pulse.
+     */
+    void finishFrame() {
+        if (!Double.isNaN(steppedTimeStep)) {
+            frameTimeStep.set(steppedTimeStep);
+        }
+        updateView();
+        updateMetrics();
+        checkRest(engine.isAsleep());
+    }
+
+    /**
+     * Get the current time of the clock that the simulation follows.
+     *
+     * @return the time in nanoseconds.
+     */
+    private long now() {
+        return deterministic ? simulatedTime : System.nanoTime();
+    }
+
+    /**
+     * Get the time that a new frame is simulated up to. In deterministic
+     * mode, this advances the simulated clock by one frame interval.
+     *
+     * @param now the time of the pulse.
+     * @return the time in nanoseconds.
+     */
+    private long nextFrame(long now) {
+        if (!deterministic) {
+            return now;
+        }
+        simulatedTime += frameInterval;
+        return simulatedTime;
+    }
+
+    private void updateMetrics() {
+        SimulationMetrics m = metrics;
+        if (m != null) {
+            m.update();
+        }
+    }
+
+    /**
+     * Choose whether metrics are collected (see getMetrics). Enabling them
+     * starts a new set of metrics; while they are disabled, no time is spent
+     * on them.
+     *
+     * @param enabled true to collect metrics.
+     */
+    public void setMetricsEnabled(boolean enabled) {
+        if (enabled == (metrics != null)) {
+            return;
+        }
+        if (enabled) {
+            // The engine starts counting before the metrics see its counters.
+            submit(() -> {
+                engine.resetCounters();
+                engine.setCounting(true);
+                metrics = new SimulationMetrics(droppedTime.get());
+            });
+        } else {
+            submit(() -> {
+                metrics = null;
+                engine.setCounting(false);
+            });
+        }
+    }
+
+    public boolean isMetricsEnabled() {
+        return metrics != null;
+    }
+
+    /**
+     * Get the metrics of this simulation.
+     *
+     * @return the metrics, or null if they are disabled. In threaded mode,
+     * they become available once the worker has processed the change.
+     */
+    public SimulationMetrics getMetrics() {
+        return metrics;
+    }
+
+    private void startAnimation() {
+        animating = true;
+        if (suspended) {
+            return;
+        }
+        if (scheduler != null) {
+            scheduler.add(this);
+        } else {
+            animation.start();
+        }
+    }
+
+    private void stopAnimation() {
+        animating = false;
+        if (scheduler != null) {
+            scheduler.remove(this);
+        }
+        animation.stop();
+    }
+
+    /**
+     * Listen to everything that decides whether the pane can be seen: its
+     * scene, window and bounds, and the visibility and clip of each ancestor.
+     * This is called again whenever the scene, an ancestor or a clip changes.
+     */
+    private void watchAncestry() {
+        for (Observable observable : watched) {
+            observable.removeListener(visibilityWatcher);
+            observable.removeListener(ancestryWatcher);
+        }
+        watched.clear();
+        Node root = layout.getRoot();
+        if (root != null) {
+            watch(root.sceneProperty(), ancestryWatcher);
+            watch(root.layoutBoundsProperty(), visibilityWatcher);
+            watch(root.localToSceneTransformProperty(), visibilityWatcher);
+            for (Node n = root; n != null; n = n.getParent()) {
+                watch(n.parentProperty(), ancestryWatcher);
+                watch(n.clipProperty(), ancestryWatcher);
+                watch(n.visibleProperty(), visibilityWatcher);
+                if (n.getClip() != null) {
+                    watch(n.getClip().boundsInParentProperty(), visibilityWatcher);
+                }
+            }
+            Scene scene = root.getScene();
+            if (scene != null) {
+                watch(scene.windowProperty(), ancestryWatcher);
+                watch(scene.widthProperty(), visibilityWatcher);
+                watch(scene.heightProperty(), visibilityWatcher);
+                if (scene.getWindow() != null) {
+                    watch(scene.getWindow().showingProperty(), visibilityWatcher);
+                }
+            }
+        }
+        updateVisibility();
+    }
+
+    private void watch(Observable observable, InvalidationListener listener) {
+        observable.addListener(listener);
+        watched.add(observable);
+    }
+
+    private void updateVisibility() {
+        Node root = layout.getRoot();
+        if (root != null) {
+            // Validate the transform, so that its next change is reported.
+            root.getLocalToSceneTransform();
+        }
+        boolean visible = isVisible(root);
+        if (visible != shown.get()) {
+            shown.set(visible);
+        }
+        if (pausedWhenHidden && !visible) {
+            suspend();
+        } else {
+            resume();
+        }
+    }
+
+    private static boolean isVisible(Node root) {
+        if (root == null) {
+            return true;
+        }
+        Scene scene = root.getScene();
+        Window window = scene == null ? null : scene.getWindow();
+        if (window == null || !window.isShowing()) {
+            return false;
+        }
+        Bounds b = root.localToScene(root.getLayoutBounds());
+        double minX = Math.max(b.getMinX(), 0), maxX = Math.min(b.getMaxX(), scene.getWidth());
+        double minY = Math.max(b.getMinY(), 0), maxY = Math.min(b.getMaxY(), scene.getHeight());
+        for (Node n = root; n != null; n = n.getParent()) {
+            if (!n.isVisible()) {
+                return false;
+            }
+            if (n.getClip() != null) {
+                Bounds c = n.localToScene(n.getClip().getBoundsInParent());
+                minX = Math.max(minX, c.getMinX());
+                maxX = Math.min(maxX, c.getMaxX());
+                minY = Math.max(minY, c.getMinY());
+                maxY = Math.min(maxY, c.getMaxY());
+            }
+        }
+        return minX <= maxX && minY <= maxY;
+    }
+
+    /**
+     * Stop stepping while the pane cannot be seen.
+     */
+    private void suspend() {
+        if (suspended) {
+            return;
+        }
+        suspended = true;
+        if (animating) {
+            if (scheduler != null) {
+                scheduler.remove(this);
+            }
+            animation.stop();
+        }
+        stopWorker();
+    }
+
+    /**
+     * Continue stepping once the pane can be seen again, without catching up
+     * on the time it was hidden.
+     */
+    private void resume() {
+        if (!suspended) {
+            return;
+        }
+        suspended = false;
+        if (!animating) {
+            return;
+        }
+        if (fastForward) {
+            offScreen(() -> engine.settle(timeStep * 1e-9, sleepEnergy, FAST_FORWARD_STEPS));
+        } else {
+            updateModel();
+            timeStamp = now();
+        }
+        if (threaded) {
+            startWorker();
+        }
+        startAnimation();
+    }
+
+    /**
+     * Check whether the pane of the layout can currently be seen.
+     *
+     * @return true if the pane is in a showing window, visible, and not
+     * scrolled or clipped out of view.
+     */
+    public boolean isShown() {
+        return shown.get();
+    }
+
+    /**
+     * Observable boolean value that is true while the pane of the layout can
+     * be seen.
+     *
+     * @return a read-only observable boolean value.
+     */
+    public ReadOnlyBooleanProperty getShown() {
+        return shown.getReadOnlyProperty();
+    }
+
+    /**
+     * Choose whether the simulation pauses while its pane cannot be seen.
+     *
+     * @param paused true to pause while hidden, false to keep stepping.
+     */
+    public void setPausedWhenHidden(boolean paused) {
+        pausedWhenHidden = paused;
+        updateVisibility();
+    }
+
+    public boolean isPausedWhenHidden() {
+        return pausedWhenHidden;
+    }
+
+    /**
+     * Choose whether a simulation that was paused while hidden is settled
+     * (see settle) before it is shown again, so that it appears at rest
+     * instead of continuing where it left off. Settling stops once the
+     * kinetic energy of every island is below the sleep energy.
+     *
+     * @param fastForward true to settle a simulation when it is shown again.
+     */
+    public void setFastForward(boolean fastForward) {
+        this.fastForward = fastForward;
+    }
+
+    public boolean isFastForward() {
+        return fastForward;
+    }
+
+    /**
+     * Choose whether the simulation is driven by a shared scheduler.
+     *
+     * A scheduled simulation does not use its own AnimationTimer, and does
+     * not start a worker thread in threaded mode; its steps are taken on the
+     * threads of the scheduler instead.
+     *
+     * @param scheduler the scheduler, or null to use an AnimationTimer of
+     * this simulation.
+     */
+    public void setScheduler(SimulationScheduler scheduler) {
+        if (this.scheduler == scheduler) {
+            return;
+        }
+        boolean restart = animating;
+        if (restart) {
+            stopAnimation();
+        }
+        stopWorker();
+        this.scheduler = scheduler;
+        if (restart) {
+            updateModel();
+            timeStamp = now();
+            if (threaded) {
+                startWorker();
+            }
+            startAnimation();
+        }
+    }
+
+    public SimulationScheduler getScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * Set the priority of this simulation in its scheduler. Simulations with
+     * a higher priority are stepped first.
+     *
+     * @param priority the priority; the default is 0.
+     */
+    public void setPriority(int priority) {
+        this.priority = priority;
+    }
+
+    public int getPriority() {
+        return priority;
+    }
+
     public void destroy() {
         stopSimulation();
         animation = null;
@@ -234,8 +974,13 @@ public class Box2DSpringSimulation {
         }
         updateModel();
         running.set(true);
-        timeStamp = System.nanoTime();
-        animation.start();
+        asleep.set(false);
+        timeStamp = now();
+        frameAsleep = false;
+        if (threaded) {
+            startWorker();
+        }
+        startAnimation();
     }
 
     /**
@@ -243,9 +988,12 @@ public class Box2DSpringSimulation {
      */
     public void stopSimulation() {
         running.set(false);
+        asleep.set(false);
+        waking = false;
         if (animation != null) {
-            animation.stop();
+            stopAnimation();
         }
+        stopWorker();
     }
 
     /**
@@ -268,6 +1016,286 @@ public class Box2DSpringSimulation {
         return running.getReadOnlyProperty();
     }
 
+    /**
+     * Check whether the simulation has fallen asleep. A sleeping simulation is
+     * still running, but does not step until it wakes up.
+     *
+     * @return true if the simulation is asleep.
+     */
+    public boolean isAsleep() {
+        return asleep.get();
+    }
+
+    /**
+     * Observable boolean value that is true while a running simulation is
+     * asleep.
+     *
+     * @return a read-only observable boolean value.
+     */
+    public ReadOnlyBooleanProperty getAsleep() {
+        return asleep.getReadOnlyProperty();
+    }
+
+    /**
+     * Resume a sleeping simulation.
+     *
+     * This happens automatically when a node is moved or pressed, or when the
+     * layout, a mass, or the parameters of a spring or tether change.
+     */
+    public void wake() {
+        if (!asleep.get()) {
+            return;
+        }
+        asleep.set(false);
+        // The model is updated on the next frame, after the change is complete.
+        waking = true;
+        startAnimation();
+    }
+
+    private void checkRest(boolean resting) {
+        if (resting) {
+            stopAnimation();
+            stopWorker();
+            asleep.set(true);
+        }
+    }
+
+    /**
+     * Set the highest speed at which a body counts as resting.
+     *
+     * @param velocity the speed, in units per second.
+     */
+    public void setSleepVelocity(double velocity) {
+        sleepVelocity = velocity;
+        submit(() -> {
+            engine.setSleepVelocity(velocity);
+        });
+    }
+
+    public double getSleepVelocity() {
+        return sleepVelocity;
+    }
+
+    /**
+     * Set the highest total kinetic energy at which an island of connected
+     * nodes counts as resting.
+     *
+     * @param energy the sum of mv²/2 over the bodies of the island.
+     */
+    public void setSleepEnergy(double energy) {
+        sleepEnergy = energy;
+        submit(() -> {
+            engine.setSleepEnergy(energy);
+        });
+    }
+
+    public double getSleepEnergy() {
+        return sleepEnergy;
+    }
+
+    /**
+     * Set how long an island must rest before it falls asleep.
+     *
+     * @param time the simulated time in seconds, or infinity to never sleep.
+     */
+    public void setSleepTime(double time) {
+        sleepTime = time;
+        submit(() -> {
+            engine.setSleepTime(time);
+        });
+    }
+
+    public double getSleepTime() {
+        return sleepTime;
+    }
+
+    /**
+     * Choose whether the simulation is stepped on a worker thread.
+     *
+     * @param threaded true to step on a worker thread, false to step on the
+     * JavaFX Application Thread.
+     */
+    public void setThreaded(boolean threaded) {
+        this.threaded = threaded;
+        if (isRunning() && threaded) {
+            updateModel();
+            startWorker();
+        } else {
+            stopWorker();
+        }
+    }
+
+    /**
+     * Check whether the simulation is stepped on a worker thread.
+     *
+     * @return true if the simulation uses a worker thread when it runs.
+     */
+    public boolean isThreaded() {
+        return threaded;
+    }
+
+    private void startWorker() {
+        if (worker != null || scheduler != null || suspended || deterministic) {
+            return;
+        }
+        synchronize();
+        // The nodes are now where the bodies are.
+        for (int i = 0; i < Math.min(sent.length, ids.length); i++) {
+            Node node = layout.getNode(i);
+            if (node != null) {
+                shownX[i] = node.getLayoutX() + node.getTranslateX();
+                shownY[i] = node.getLayoutY() + node.getTranslateY();
+                held[i] = node.isPressed();
+                applied[i] = sent[i];
+            }
+        }
+        synchronized (frameLock) {
+            fresh = false;
+        }
+        stopping = false;
+        worker = new Thread(this::work, "Box2DSpringSimulation");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    private void stopWorker() {
+        if (worker == null) {
+            return;
+        }
+        stopping = true;
+        LockSupport.unpark(worker);
+        boolean interrupted = false;
+        while (worker.isAlive()) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        worker = null;
+        // Apply whatever the worker did not get to.
+        for (Runnable command = commands.poll(); command != null; command = commands.poll()) {
+            command.run();
+        }
+        updateView();
+    }
+
+    /**
+     * The worker loop: apply changes, step the engine until it has caught up,
+     * and publish the positions.
+     */
+    private void work() {
+        long stamp = System.nanoTime();
+        while (!stopping) {
+            for (Runnable command = commands.poll(); command != null; command = commands.poll()) {
+                command.run();
+            }
+            // In adaptive mode, wait until a full step can be taken.
+            long wait = adaptive ? stableTimeStep : timeStep;
+            long now = System.nanoTime();
+            if (stamp + wait < now) {
+                stamp = advance(stamp, now, false);
+                publish();
+            }
+            LockSupport.parkNanos(stamp + wait - System.nanoTime());
+        }
+    }
+
+    /**
+     * Simulate in dt-sized steps until caught up with the clock, or until the
+     * step limit or the time budget of the frame is exhausted.
+     *
+     * In adaptive mode, each step is as long as the engine allows, and the
+     * last step of a frame ends exactly at the current time.
+     *
+     * @param stamp the time that has been simulated up to.
+     * @param now the current time.
+     * @param synchronous true to load changes from the layout before each step,
+     * false to step the engine directly on the worker.
+     * @return the time that has been simulated up to, including any dropped
+     * time.
+     */
+    private long advance(long stamp, long now, boolean synchronous) {
+        SimulationMetrics m = metrics;
+        long allocated = m != null ? SimulationMetrics.threadAllocatedBytes() : 0;
+        long start = System.nanoTime();
+        long begin = stamp;
+        int steps = 0;
+        steppedTimeStep = Double.NaN;
+        while (adaptive ? stamp + minTimeStep <= now : stamp + timeStep < now) {
+            if (steps >= maxStepsPerFrame || !deterministic && System.nanoTime() - start >= frameBudget) {
+                long behind = now - stamp;
+                long kept = overload == Overload.SLOW_DOWN ? Math.min(behind, stamp - begin) : 0;
+                droppedTime.addAndGet(behind - kept);
+                if (steps > 0) {
+                    steppedTimeStep = (stamp - begin) * 1e-9 / steps;
+                }
+                stamp = now - kept;
+                break;
+            }
+            if (synchronous) {
+                synchronize();
+            }
+            long dt = adaptive ? chooseTimeStep(now - stamp) : timeStep;
+            if (m != null) {
+                long t = System.nanoTime();
+                engine.step(dt * 1e-9);
+                m.recordStep(System.nanoTime() - t);
+            } else {
+                engine.step(dt * 1e-9);
+            }
+            stamp += dt;
+            steps++;
+        }
+        if (steps > 0 && Double.isNaN(steppedTimeStep)) {
+            steppedTimeStep = (stamp - begin) * 1e-9 / steps;
+        }
+        if (m != null && steps > 0) {
+            m.recordFrame(steps, System.nanoTime() - start, SimulationMetrics.threadAllocatedBytes() - allocated,
+                    engine, droppedTime.get());
+        }
+        return stamp;
+    }
+
+    /**
+     * Choose the next adaptive time step.
+     *
+     * @param remaining the time left in this frame, at least minTimeStep.
+     * @return the time step in nanoseconds.
+     */
+    private long chooseTimeStep(long remaining) {
+        double stable = engine.getStableTimeStep(maxDisplacement) * 1e9;
+        stableTimeStep = stable >= maxTimeStep ? maxTimeStep : Math.max(minTimeStep, (long) stable);
+        return Math.min(stableTimeStep, remaining);
+    }
+
+    private void publish() {
+        Frame f = back;
+        if (f == null || f.x.length < ids.length) {
+            f = new Frame(ids.length);
+        }
+        f.count = ids.length;
+        f.asleep = engine.isAsleep();
+        f.timeStep = steppedTimeStep;
+        for (int i = 0; i < ids.length; i++) {
+            if (ids[i] >= 0) {
+                f.x[i] = engine.getX(ids[i]);
+                f.y[i] = engine.getY(ids[i]);
+                f.seq[i] = applied[i];
+            } else {
+                f.x[i] = Double.NaN;
+            }
+        }
+        synchronized (frameLock) {
+            back = front;
+            front = f;
+            fresh = true;
+        }
+    }
+
     /**
      * Set the simulated time step.
      *
@@ -289,78 +1317,360 @@ public class Box2DSpringSimulation {
     }
 
     /**
-     * Applies a spring force to one endpoint of spring set.
+     * Choose whether the simulation follows a simulated clock instead of the
+     * system clock.
+     *
+     * In deterministic mode, each frame simulates exactly the frame interval
+     * (see setFrameInterval), however long it actually took, and the frame
+     * budget is ignored; the limit on steps per frame still applies. The
+     * engine is never stepped on a worker thread, even in threaded mode. With
+     * the same seed (see setSeed), the same layout and the same sequence of
+     * frames and changes then always lead to the same positions. Settling and
+     * minimising do not depend on the clock, and are always deterministic.
+     *
+     * @param deterministic true to follow the simulated clock.
+     */
+    public void setDeterministic(boolean deterministic) {
+        if (deterministic == this.deterministic) {
+            return;
+        }
+        if (deterministic) {
+            stopWorker();
+        }
+        this.deterministic = deterministic;
+        timeStamp = now();
+        if (!deterministic && threaded && isRunning()) {
+            updateModel();
+            startWorker();
+        }
+    }
+
+    public boolean isDeterministic() {
+        return deterministic;
+    }
+
+    /**
+     * Set the time that each frame simulates in deterministic mode.
      *
-     * @param a the target of the force
-     * @param b the other endpoint of the spring set.
-     * @param springs the springs between the two bodies.
+     * @param interval the interval in seconds; the default is 1/60.
      */
-    private void applySprings(Body a, Body b, Set<Spring> springs) {
-        Point2D pA = point(a.getPosition());
-        Point2D pB = point(b.getPosition());
+    public void setFrameInterval(double interval) {
+        frameInterval = (long) (interval * 1e9);
+    }
 
-        Point2D force = springs.stream().map((s) -> {
-            return s.getForce(pA, pB);
-        }).reduce(new Point2D(0, 0), (x, y) -> {
-            return x.add(y);
+    public double getFrameInterval() {
+        return frameInterval * 1e-9;
+    }
+
+    /**
+     * Set the seed of the engine (see SpringEngine.setSeed).
+     *
+     * @param seed the seed; the default is 0.
+     */
+    public void setSeed(long seed) {
+        submit(() -> {
+            engine.setSeed(seed);
         });
+    }
+
+    /**
+     * Choose whether each step is as long as the layout allows, instead of the
+     * fixed time step.
+     *
+     * The length of each step is estimated from the stiffness of the springs
+     * acting on each node, its mass, the friction and its speed (see
+     * SpringEngine.getStableTimeStep). Soft layouts then take few long steps,
+     * and stiff layouts take short steps that keep them stable. The
+     * integration error is not estimated; only the displacement per step is
+     * limited (see setMaxDisplacement).
+     *
+     * @param adaptive true to adapt the time step.
+     */
+    public void setAdaptive(boolean adaptive) {
+        this.adaptive = adaptive;
+    }
 
-        a.applyForceToCenter(vec(force));
+    public boolean isAdaptive() {
+        return adaptive;
     }
 
     /**
-     * Applies a spring force to a tethered node.
+     * Limit the adaptive time step.
      *
-     * @param body the target of the force
-     * @param tethers the tethers connected to the node
+     * @param min the shortest step in seconds.
+     * @param max the longest step in seconds.
      */
-    private void applyTethers(Body body, Set<Tether> tethers) {
-        Point2D p = point(body.getPosition());
+    public void setTimeStepRange(double min, double max) {
+        minTimeStep = Math.max(1, (long) (min * 1e9));
+        maxTimeStep = Math.max(minTimeStep, (long) (max * 1e9));
+    }
 
-        Point2D force = tethers.stream().map((s) -> {
-            return s.getForce(p);
-        }).reduce(new Point2D(0, 0), (x, y) -> {
-            return x.add(y);
-        });
+    public double getMinTimeStep() {
+        return minTimeStep * 1e-9;
+    }
 
-        body.applyForceToCenter(vec(force));
+    public double getMaxTimeStep() {
+        return maxTimeStep * 1e-9;
     }
 
     /**
-     * Apply an opposing force in proportion to the velocity of a body.
+     * Set how far a node may move in one adaptive step. Smaller values keep
+     * fast nodes closer to their path, but take more steps.
      *
-     * @param a
+     * @param maxDisplacement the distance.
      */
-    private void applyFriction(Body a) {
-        Vec2 v = a.getLinearVelocity();
-        a.applyForceToCenter(v.mul((float) -friction));
+    public void setMaxDisplacement(double maxDisplacement) {
+        this.maxDisplacement = maxDisplacement;
     }
 
-    private void applyAllForces() {
-        layout.getAllConnections().stream().forEach((e) -> {
-            Node a = e.getKey().getKey();
-            Node b = e.getKey().getValue();
-            Set<Spring> s = e.getValue();
-            applySprings(bodies.get(a), bodies.get(b), s);
-        });
-        layout.getAllTethers().stream().forEach((e) -> {
-            Node node = e.getKey();
-            Set<Tether> t = e.getValue();
-            applyTethers(bodies.get(node), t);
-        });
-        bodies.values().stream().forEach((a) -> {
-            applyFriction(a);
-            layout.getFields().stream().forEach((field) -> {
-                a.applyForceToCenter(vec(field.force(point(a.getPosition()))));
+    public double getMaxDisplacement() {
+        return maxDisplacement;
+    }
+
+    /**
+     * Get the average time step of the last frame that simulated any steps.
+     *
+     * @return the time step in seconds.
+     */
+    public double getFrameTimeStep() {
+        return frameTimeStep.get();
+    }
+
+    /**
+     * Observable average time step of the last frame that simulated any
+     * steps.
+     *
+     * @return a read-only observable value, in seconds.
+     */
+    public ReadOnlyDoubleProperty frameTimeStepProperty() {
+        return frameTimeStep.getReadOnlyProperty();
+    }
+
+    /**
+     * Limit the number of steps simulated in one frame.
+     *
+     * Without a limit, a slow frame makes the next frame simulate more steps,
+     * which can make it slower still.
+     *
+     * @param steps the maximum number of steps per frame.
+     */
+    public void setMaxStepsPerFrame(int steps) {
+        maxStepsPerFrame = steps;
+    }
+
+    public int getMaxStepsPerFrame() {
+        return maxStepsPerFrame;
+    }
+
+    /**
+     * Limit the time spent simulating in one frame. The limit is checked
+     * between steps, so a frame may take up to one step longer.
+     *
+     * @param budget the maximum time in seconds, or infinity for no limit.
+     */
+    public void setFrameBudget(double budget) {
+        frameBudget = budget == Double.POSITIVE_INFINITY ? Long.MAX_VALUE : (long) (budget * 1e9);
+    }
+
+    /**
+     * Get the time limit per frame.
+     *
+     * @return the time in seconds, or infinity if there is no limit.
+     */
+    public double getFrameBudget() {
+        return frameBudget == Long.MAX_VALUE ? Double.POSITIVE_INFINITY : frameBudget * 1e-9;
+    }
+
+    /**
+     * Choose what happens to the time that a frame could not simulate within
+     * its limits.
+     *
+     * @param overload the policy.
+     */
+    public void setOverload(Overload overload) {
+        this.overload = overload;
+    }
+
+    public Overload getOverload() {
+        return overload;
+    }
+
+    /**
+     * Get the total time that was not simulated because a frame exceeded its
+     * limits.
+     *
+     * @return the dropped time in seconds.
+     */
+    public double getDroppedTime() {
+        return droppedTime.get() * 1e-9;
+    }
+
+    /**
+     * Load the forces of the layout into the engine, if they have changed.
+     */
+    private void synchronize() {
+        if (forces == null || forces.revision != layout.getRevision()) {
+            modifications = layout.getParameterRevision();
+            ForceSnapshot f = new ForceSnapshot(layout);
+            forces = f;
+            submit(() -> {
+                load(f);
             });
-        });
+        } else if (modifications != layout.getParameterRevision()) {
+            modifications = layout.getParameterRevision();
+            ForceSnapshot f = forces;
+            if (worker == null) {
+                f.readParameters(f.springParameters, f.tetherParameters);
+                loadParameters(f.springParameters, f.tetherParameters);
+            } else {
+                // The worker may still be reading the buffers it was sent
+                // last, so they are only reused once it has handed them back.
+                double[][] buffers = spareParameters.getAndSet(null);
+                if (buffers == null || buffers[0].length != f.springParameters.length
+                        || buffers[1].length != f.tetherParameters.length) {
+                    buffers = new double[][]{new double[f.springParameters.length], new double[f.tetherParameters.length]};
+                }
+                double[][] loaded = buffers;
+                f.readParameters(loaded[0], loaded[1]);
+                submit(() -> {
+                    loadParameters(loaded[0], loaded[1]);
+                    spareParameters.set(loaded);
+                });
+            }
+        }
+    }
+
+    /**
+     * Load a snapshot of the forces into the engine.
+     *
+     * Springs and tethers that were already loaded are kept and only updated,
+     * so that islands which are not affected by a change stay asleep.
+     */
+    private void load(ForceSnapshot f) {
+        double[] p = f.springParameters;
+        // Stale springs are removed in the order they were loaded, which
+        // decides the identifiers that the engine reuses.
+        Map<SpringKey, Integer> keys = new LinkedHashMap<>();
+        springIds = new int[f.springA.length];
+        for (int k = 0; k < springIds.length; k++) {
+            SpringKey key = new SpringKey(f.springs[k], f.springA[k], f.springB[k]);
+            Integer id = springKeys.remove(key);
+            if (id == null) {
+                springIds[k] = engine.addSpring(ids[f.springA[k]], ids[f.springB[k]],
+                        p[6 * k], p[6 * k + 1], p[6 * k + 2], p[6 * k + 3], p[6 * k + 4], p[6 * k + 5]);
+            } else {
+                springIds[k] = id;
+                engine.setSpring(id, p[6 * k], p[6 * k + 1], p[6 * k + 2], p[6 * k + 3], p[6 * k + 4], p[6 * k + 5]);
+            }
+            keys.put(key, springIds[k]);
+        }
+        for (int id : springKeys.values()) {
+            engine.removeSpring(id);
+        }
+        springKeys = keys;
+
+        p = f.tetherParameters;
+        keys = new LinkedHashMap<>();
+        tetherIds = new int[f.tetherNode.length];
+        for (int k = 0; k < tetherIds.length; k++) {
+            SpringKey key = new SpringKey(f.tethers[k], f.tetherNode[k], -1);
+            Integer id = tetherKeys.remove(key);
+            if (id == null) {
+                tetherIds[k] = engine.addTether(ids[f.tetherNode[k]],
+                        p[6 * k], p[6 * k + 1], p[6 * k + 2], p[6 * k + 3], p[6 * k + 4], p[6 * k + 5]);
+            } else {
+                tetherIds[k] = id;
+                engine.setTether(id, p[6 * k], p[6 * k + 1], p[6 * k + 2], p[6 * k + 3], p[6 * k + 4], p[6 * k + 5]);
+            }
+            keys.put(key, tetherIds[k]);
+        }
+        for (int id : tetherKeys.values()) {
+            engine.removeTether(id);
+        }
+        tetherKeys = keys;
+
+        if (f.mesh == null) {
+            engine.clearMesh();
+        } else {
+            engine.setMesh(f.mesh.getStrength(), f.mesh.getTheta());
+        }
+        for (int i = 0; i < ids.length; i++) {
+            if (ids[i] < 0) {
+                continue;
+            }
+            Point2D target = i < f.meshTargets.length ? f.meshTargets[i] : null;
+            if (target == null) {
+                engine.clearMeshTarget(ids[i]);
+            } else {
+                engine.setMeshTarget(ids[i], target.getX(), target.getY());
+            }
+        }
+
+        if (!Arrays.equals(f.fields, loadedFields)) {
+            engine.clearFields();
+            for (ForceField field : f.fields) {
+                engine.addField(field);
+            }
+            loadedFields = f.fields;
+        }
     }
 
-    private static Point2D point(Vec2 v) {
-        return new Point2D(v.x, v.y);
+    private void loadParameters(double[] springParameters, double[] tetherParameters) {
+        double[] p = springParameters;
+        for (int k = 0; k < springIds.length; k++) {
+            engine.setSpring(springIds[k], p[6 * k], p[6 * k + 1], p[6 * k + 2], p[6 * k + 3], p[6 * k + 4], p[6 * k + 5]);
+        }
+        p = tetherParameters;
+        for (int k = 0; k < tetherIds.length; k++) {
+            engine.setTether(tetherIds[k], p[6 * k], p[6 * k + 1], p[6 * k + 2], p[6 * k + 3], p[6 * k + 4], p[6 * k + 5]);
+        }
     }
 
-    private static Vec2 vec(Point2D v) {
-        return new Vec2((float) v.getX(), (float) v.getY());
+    /**
+     * Identifies a spring handle between two nodes (or a tether handle on one
+     * node) across snapshots.
+     */
+    private static final class SpringKey {
+
+        private final Spring spring;
+        private final int a, b;
+
+        SpringKey(Spring spring, int a, int b) {
+            this.spring = spring;
+            this.a = a;
+            this.b = b;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof SpringKey)) {
+                return false;
+            }
+            SpringKey k = (SpringKey) o;
+            return spring == k.spring && a == k.a && b == k.b;
+        }
+
+        @Override
+        public int hashCode() {
+            return (System.identityHashCode(spring) * 31 + a) * 31 + b;
+        }
+    }
+
+    /**
+     * The positions of all nodes after a batch of steps, by node index.
+     */
+    private static final class Frame {
+
+        private int count;
+        private boolean asleep;
+        private double timeStep;
+        private final double[] x, y;
+        private final int[] seq;
+
+        Frame(int capacity) {
+            x = new double[capacity];
+            y = new double[capacity];
+            seq = new int[capacity];
+        }
     }
 }
@@ -1,6 +1,7 @@
 package physics;
 
 import javafx.geometry.Point2D;
+import physics.engine.Field;
 
 /**
  * Implements a field that applies a force on all particles.
@@ -9,10 +10,28 @@ import javafx.geometry.Point2D;
  *
  * @author Christoph Burschka &lt;christoph@burschka.de&gt;
  */
-public abstract class ForceField {
+public abstract class ForceField implements Field {
 
     public abstract Point2D force(Point2D location);
 
+    /**
+     * Calculate the force at a location without allocating a new point.
+     *
+     * Subclasses should override this; the default implementation delegates to
+     * force(Point2D).
+     *
+     * @param x the x coordinate of the location
+     * @param y the y coordinate of the location
+     * @param out an array that will receive the x and y components of the
+     * force.
+     */
+    @Override
+    public void force(double x, double y, double[] out) {
+        Point2D f = force(new Point2D(x, y));
+        out[0] = f.getX();
+        out[1] = f.getY();
+    }
+
     /**
      * Project a 2D vector onto another.
      *
@@ -0,0 +1,110 @@
+package physics;
+
+import java.util.Set;
+import javafx.geometry.Point2D;
+import layout.Connection;
+import layout.PhysLayout;
+
+/**
+ * A copy of all forces acting in a layout, by node index.
+ *
+ * The snapshot is taken on the thread that owns the layout, and contains only
+ * primitive values, so that it can be loaded into an engine on another thread.
+ * The parameters of each spring and tether are stored as six consecutive
+ * values: length, strength and the coordinates of both anchors.
+ *
+ * @author Christoph Burschka &lt;christoph@burschka.de&gt;
+ */
+final class ForceSnapshot {
+
+    final long revision;
+    final int[] springA, springB;
+    final double[] springParameters;
+    final int[] tetherNode;
+    final double[] tetherParameters;
+    final SpringMesh mesh;
+    final Point2D[] meshTargets;
+    final ForceField[] fields;
+    final Spring[] springs, tethers;
+
+    /**
+     * Copy the current state of a layout.
+     *
+     * @param layout the layout containing the springs, tethers and fields.
+     */
+    ForceSnapshot(PhysLayout layout) {
+        revision = layout.getRevision();
+
+        int count = 0;
+        for (Connection c : layout.getConnections()) {
+            count += c.getSprings().size();
+        }
+        springs = new Spring[count];
+        springA = new int[count];
+        springB = new int[count];
+        int k = 0;
+        for (Connection c : layout.getConnections()) {
+            for (Spring s : c.getSprings()) {
+                // The force acts on the node of the spring's first anchor.
+                boolean reversed = c.isReversed(s);
+                springs[k] = s;
+                springA[k] = reversed ? c.getIndexB() : c.getIndexA();
+                springB[k] = reversed ? c.getIndexA() : c.getIndexB();
+                k++;
+            }
+        }
+
+        int capacity = layout.getCapacity();
+        count = 0;
+        for (int i = 0; i < capacity; i++) {
+            Set<Tether> t = layout.getTethers(i);
+            count += t == null ? 0 : t.size();
+        }
+        tethers = new Spring[count];
+        tetherNode = new int[count];
+        k = 0;
+        for (int i = 0; i < capacity; i++) {
+            if (layout.getTethers(i) == null) {
+                continue;
+            }
+            for (Tether t : layout.getTethers(i)) {
+                tethers[k] = t.getSpring();
+                tetherNode[k] = i;
+                k++;
+            }
+        }
+        springParameters = new double[6 * springs.length];
+        tetherParameters = new double[6 * tethers.length];
+        readParameters(springParameters, tetherParameters);
+
+        mesh = layout.getMesh();
+        meshTargets = new Point2D[capacity];
+        for (int i = 0; i < capacity; i++) {
+            meshTargets[i] = layout.getMeshTarget(i);
+        }
+        fields = layout.getFields().toArray(new ForceField[0]);
+    }
+
+    /**
+     * Copy the current parameters of all springs and tethers.
+     *
+     * @param springParameters receives the spring parameters.
+     * @param tetherParameters receives the tether parameters.
+     */
+    void readParameters(double[] springParameters, double[] tetherParameters) {
+        read(springs, springParameters);
+        read(tethers, tetherParameters);
+    }
+
+    private static void read(Spring[] springs, double[] out) {
+        for (int k = 0; k < springs.length; k++) {
+            Spring s = springs[k];
+            out[6 * k] = s.getLength();
+            out[6 * k + 1] = s.getStrength();
+            out[6 * k + 2] = s.getAnchorAX();
+            out[6 * k + 3] = s.getAnchorAY();
+            out[6 * k + 4] = s.getAnchorBX();
+            out[6 * k + 5] = s.getAnchorBY();
+        }
+    }
+}
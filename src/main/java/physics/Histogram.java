@@ -0,0 +1,106 @@
+package physics;
+
+import java.util.Arrays;
+
+/**
+ * A histogram of non-negative values with one bucket per power of two.
+ *
+ * Recording a value takes constant time and does not allocate. Percentiles
+ * are accurate to within a factor of two, and never exceed the maximum.
+ *
+ * @author Christoph Burschka &lt;christoph@burschka.de&gt;
+ */
+public final class Histogram {
+
+    private final long[] buckets = new long[65];
+    private long count, sum, max;
+
+    /**
+     * Add a value. Negative values are counted as 0.
+     *
+     * @param value the value
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        buckets[64 - Long.numberOfLeadingZeros(value)]++;
+        count++;
+        sum += value;
+        max = Math.max(max, value);
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getSum() {
+        return sum;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     * Get the mean of all values.
+     *
+     * @return the mean, or 0 if there are no values.
+     */
+    public double getMean() {
+        return count == 0 ? 0 : (double) sum / count;
+    }
+
+    /**
+     * Get an upper bound for a percentile.
+     *
+     * @param p the fraction of values, between 0 and 1
+     * @return the upper end of the bucket containing the percentile, or 0 if
+     * there are no values.
+     */
+    public long getPercentile(double p) {
+        long rank = (long) Math.ceil(p * count);
+        long seen = 0;
+        for (int b = 0; b < buckets.length; b++) {
+            seen += buckets[b];
+            if (seen >= rank && seen > 0) {
+                return b == 0 ? 0 : Math.min(max, b >= 63 ? Long.MAX_VALUE : (1L << b) - 1);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Get the number of values in each bucket. Bucket 0 holds the value 0,
+     * and bucket b holds values from 2^(b-1) to 2^b - 1.
+     *
+     * @return a copy of the buckets.
+     */
+    public long[] getBuckets() {
+        return buckets.clone();
+    }
+
+    /**
+     * Make an independent copy.
+     *
+     * @return a histogram with the same values.
+     */
+    public Histogram copy() {
+        Histogram h = new Histogram();
+        System.arraycopy(buckets, 0, h.buckets, 0, buckets.length);
+        h.count = count;
+        h.sum = sum;
+        h.max = max;
+        return h;
+    }
+
+    /**
+     * Remove all values.
+     */
+    public void reset() {
+        Arrays.fill(buckets, 0);
+        count = 0;
+        sum = 0;
+        max = 0;
+    }
+}
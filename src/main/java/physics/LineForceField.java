@@ -47,4 +47,17 @@ public class LineForceField extends ForceField {
         double distance = relative.magnitude();
         return relative.multiply((strength / (distance * distance * distance)));
     }
+
+    @Override
+    public void force(double x, double y, double[] out) {
+        double dx = x - location.getX();
+        double dy = y - location.getY();
+        double dot = dx * direction.getX() + dy * direction.getY();
+        dx -= direction.getX() * dot;
+        dy -= direction.getY() * dot;
+        double distance = Math.sqrt(dx * dx + dy * dy);
+        double f = strength / (distance * distance * distance);
+        out[0] = dx * f;
+        out[1] = dy * f;
+    }
 }
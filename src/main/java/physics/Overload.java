@@ -0,0 +1,24 @@
+package physics;
+
+/**
+ * Selects what happens to simulated time that could not be caught up within
+ * one frame (see Box2DSpringSimulation.setMaxStepsPerFrame and
+ * setFrameBudget).
+ *
+ * @author Christoph Burschka &lt;christoph@burschka.de&gt;
+ */
+public enum Overload {
+
+    /**
+     * The remaining time is discarded. The simulation skips ahead, and stays
+     * in step with the clock.
+     */
+    DROP,
+    /**
+     * The remaining time is carried over into the next frame, so the
+     * simulation runs slower than the clock until it has caught up. At most as
+     * much time as was simulated in the frame is carried over; the rest is
+     * discarded.
+     */
+    SLOW_DOWN
+}
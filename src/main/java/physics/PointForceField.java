@@ -37,4 +37,19 @@ public class PointForceField extends ForceField {
         }
         else return Point2D.ZERO;
     }
+
+    @Override
+    public void force(double x, double y, double[] out) {
+        double dx = x - source.getX();
+        double dy = y - source.getY();
+        double distance = Math.sqrt(dx * dx + dy * dy);
+        if (distance > 0.01) {
+            double f = strength / (distance * Math.max(distance * distance, 0.05));
+            out[0] = dx * f;
+            out[1] = dy * f;
+        } else {
+            out[0] = 0;
+            out[1] = 0;
+        }
+    }
 }
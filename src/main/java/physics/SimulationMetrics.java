@@ -0,0 +1,387 @@
+package physics;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import javafx.beans.property.ReadOnlyDoubleProperty;
+import javafx.beans.property.ReadOnlyDoubleWrapper;
+import javafx.beans.property.ReadOnlyLongProperty;
+import javafx.beans.property.ReadOnlyLongWrapper;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import physics.engine.SpringEngine;
+
+/**
+ * Measures what a simulation costs: the duration of each step, the number of
+ * steps in each frame, the force evaluations of the engine, the memory
+ * allocated while stepping, and the energy of the layout.
+ *
+ * Metrics are only collected while they are enabled (see
+ * Box2DSpringSimulation.setMetricsEnabled). They are recorded by whichever
+ * thread steps the engine, without allocating, and can be read as a
+ * snapshot from any thread, through JMX (see register), or as properties that
+ * are updated once per frame on the JavaFX Application Thread.
+ *
+ * @author Christoph Burschka &lt;christoph@burschka.de&gt;
+ */
+public class SimulationMetrics implements SimulationMetricsMXBean {
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    // Guarded by this:
+    private final Histogram stepTime = new Histogram();
+    private final Histogram stepsPerFrame = new Histogram();
+    private final Histogram frameTime = new Histogram();
+    private long frames, steps;
+    private long forceEvaluations, springEvaluations, tetherEvaluations, fieldEvaluations;
+    private long allocatedBytes, droppedTime;
+    private double kineticEnergy, potentialEnergy;
+    private long lastSteps, lastStepTime;
+
+    // Owned by whichever thread steps the engine:
+    private long seenForce, seenSpring, seenTether, seenField, seenDropped;
+
+    // Owned by the JavaFX Application Thread:
+    private final ReadOnlyLongWrapper frameCount = new ReadOnlyLongWrapper(0);
+    private final ReadOnlyLongWrapper stepCount = new ReadOnlyLongWrapper(0);
+    private final ReadOnlyDoubleWrapper frameSteps = new ReadOnlyDoubleWrapper(0);
+    private final ReadOnlyDoubleWrapper frameStepTime = new ReadOnlyDoubleWrapper(0);
+    private final ReadOnlyLongWrapper evaluationCount = new ReadOnlyLongWrapper(0);
+    private final ReadOnlyDoubleWrapper kinetic = new ReadOnlyDoubleWrapper(0);
+    private final ReadOnlyDoubleWrapper potential = new ReadOnlyDoubleWrapper(0);
+
+    private ObjectName name;
+
+    /**
+     * Start collecting metrics.
+     *
+     * @param dropped the total time dropped by the simulation so far, in
+     * nanoseconds.
+     */
+    SimulationMetrics(long dropped) {
+        seenDropped = dropped;
+    }
+
+    /**
+     * Get the number of bytes allocated by the current thread so far.
+     *
+     * @return the number of bytes, or 0 if the JVM does not measure it.
+     */
+    static long threadAllocatedBytes() {
+        if (THREADS instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) THREADS;
+            if (threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled()) {
+                return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Record one step of the engine.
+     *
+     * @param nanos the duration of the step.
+     */
+    synchronized void recordStep(long nanos) {
+        stepTime.record(nanos);
+        steps++;
+        lastSteps++;
+        lastStepTime += nanos;
+    }
+
+    /**
+     * Record the end of a frame, after the engine has caught up.
+     *
+     * @param frameSteps the number of steps in the frame
+     * @param nanos the time spent stepping
+     * @param allocated the number of bytes allocated while stepping
+     * @param engine the engine, for its counters and energy
+     * @param dropped the total time dropped by the simulation so far, in
+     * nanoseconds.
+     */
+    void recordFrame(int frameSteps, long nanos, long allocated, SpringEngine engine, long dropped) {
+        long force = engine.getForceEvaluations(), spring = engine.getSpringEvaluations();
+        long tether = engine.getTetherEvaluations(), field = engine.getFieldEvaluations();
+        double ke = engine.getKineticEnergy(), pe = engine.getPotentialEnergy();
+        synchronized (this) {
+            frames++;
+            stepsPerFrame.record(frameSteps);
+            frameTime.record(nanos);
+            forceEvaluations += force - seenForce;
+            springEvaluations += spring - seenSpring;
+            tetherEvaluations += tether - seenTether;
+            fieldEvaluations += field - seenField;
+            droppedTime += dropped - seenDropped;
+            allocatedBytes += allocated;
+            kineticEnergy = ke;
+            potentialEnergy = pe;
+        }
+        seenForce = force;
+        seenSpring = spring;
+        seenTether = tether;
+        seenField = field;
+        seenDropped = dropped;
+    }
+
+    /**
+     * Update the properties on the JavaFX Application Thread.
+     */
+    void update() {
+        long f, s, e, n, t;
+        double ke, pe;
+        synchronized (this) {
+            f = frames;
+            s = steps;
+            e = forceEvaluations;
+            n = lastSteps;
+            t = lastStepTime;
+            ke = kineticEnergy;
+            pe = potentialEnergy;
+            lastSteps = 0;
+            lastStepTime = 0;
+        }
+        frameCount.set(f);
+        stepCount.set(s);
+        evaluationCount.set(e);
+        frameSteps.set(n);
+        frameStepTime.set(n == 0 ? 0 : t * 1e-9 / n);
+        kinetic.set(ke);
+        potential.set(pe);
+    }
+
+    /**
+     * Take a consistent copy of all metrics.
+     *
+     * @return the snapshot.
+     */
+    public synchronized Snapshot snapshot() {
+        return new Snapshot(this);
+    }
+
+    /**
+     * Register these metrics with the platform MBean server, under the name
+     * physics:type=SimulationMetrics,name=&lt;name&gt;.
+     *
+     * @param name a name that identifies the simulation.
+     * @return the object name.
+     * @throws JMException if the name is invalid or already registered.
+     */
+    public synchronized ObjectName register(String name) throws JMException {
+        unregister();
+        ObjectName objectName = new ObjectName("physics:type=SimulationMetrics,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        this.name = objectName;
+        return objectName;
+    }
+
+    /**
+     * Remove these metrics from the platform MBean server, if they were
+     * registered.
+     *
+     * @throws JMException if the MBean server fails to unregister them.
+     */
+    public synchronized void unregister() throws JMException {
+        if (name != null) {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            name = null;
+        }
+    }
+
+    @Override
+    public synchronized void reset() {
+        stepTime.reset();
+        stepsPerFrame.reset();
+        frameTime.reset();
+        frames = 0;
+        steps = 0;
+        forceEvaluations = 0;
+        springEvaluations = 0;
+        tetherEvaluations = 0;
+        fieldEvaluations = 0;
+        allocatedBytes = 0;
+        droppedTime = 0;
+        kineticEnergy = 0;
+        potentialEnergy = 0;
+        lastSteps = 0;
+        lastStepTime = 0;
+    }
+
+    @Override
+    public synchronized long getFrames() {
+        return frames;
+    }
+
+    @Override
+    public synchronized long getSteps() {
+        return steps;
+    }
+
+    @Override
+    public synchronized double getMeanStepTime() {
+        return stepTime.getMean() * 1e-9;
+    }
+
+    @Override
+    public synchronized double getMaxStepTime() {
+        return stepTime.getMax() * 1e-9;
+    }
+
+    @Override
+    public synchronized double getStepTime99() {
+        return stepTime.getPercentile(0.99) * 1e-9;
+    }
+
+    @Override
+    public synchronized double getMeanStepsPerFrame() {
+        return stepsPerFrame.getMean();
+    }
+
+    @Override
+    public synchronized long getMaxStepsPerFrame() {
+        return stepsPerFrame.getMax();
+    }
+
+    @Override
+    public synchronized double getMeanFrameTime() {
+        return frameTime.getMean() * 1e-9;
+    }
+
+    @Override
+    public synchronized double getMaxFrameTime() {
+        return frameTime.getMax() * 1e-9;
+    }
+
+    @Override
+    public synchronized long getForceEvaluations() {
+        return forceEvaluations;
+    }
+
+    @Override
+    public synchronized long getSpringEvaluations() {
+        return springEvaluations;
+    }
+
+    @Override
+    public synchronized long getTetherEvaluations() {
+        return tetherEvaluations;
+    }
+
+    @Override
+    public synchronized long getFieldEvaluations() {
+        return fieldEvaluations;
+    }
+
+    @Override
+    public synchronized long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    @Override
+    public synchronized double getDroppedTime() {
+        return droppedTime * 1e-9;
+    }
+
+    @Override
+    public synchronized double getKineticEnergy() {
+        return kineticEnergy;
+    }
+
+    @Override
+    public synchronized double getPotentialEnergy() {
+        return potentialEnergy;
+    }
+
+    /**
+     * The number of frames, updated once per frame.
+     *
+     * @return a read-only observable value.
+     */
+    public ReadOnlyLongProperty framesProperty() {
+        return frameCount.getReadOnlyProperty();
+    }
+
+    /**
+     * The number of steps, updated once per frame.
+     *
+     * @return a read-only observable value.
+     */
+    public ReadOnlyLongProperty stepsProperty() {
+        return stepCount.getReadOnlyProperty();
+    }
+
+    /**
+     * The number of steps since the previous frame.
+     *
+     * @return a read-only observable value.
+     */
+    public ReadOnlyDoubleProperty stepsPerFrameProperty() {
+        return frameSteps.getReadOnlyProperty();
+    }
+
+    /**
+     * The mean duration of the steps since the previous frame, in seconds.
+     *
+     * @return a read-only observable value.
+     */
+    public ReadOnlyDoubleProperty stepTimeProperty() {
+        return frameStepTime.getReadOnlyProperty();
+    }
+
+    /**
+     * The number of force evaluations, updated once per frame.
+     *
+     * @return a read-only observable value.
+     */
+    public ReadOnlyLongProperty forceEvaluationsProperty() {
+        return evaluationCount.getReadOnlyProperty();
+    }
+
+    /**
+     * The kinetic energy after the latest step.
+     *
+     * @return a read-only observable value.
+     */
+    public ReadOnlyDoubleProperty kineticEnergyProperty() {
+        return kinetic.getReadOnlyProperty();
+    }
+
+    /**
+     * The potential energy of the springs and tethers after the latest step.
+     *
+     * @return a read-only observable value.
+     */
+    public ReadOnlyDoubleProperty potentialEnergyProperty() {
+        return potential.getReadOnlyProperty();
+    }
+
+    /**
+     * A copy of the metrics at one point in time. Times are in nanoseconds.
+     */
+    public static final class Snapshot {
+
+        public final long frames, steps;
+        public final long forceEvaluations, springEvaluations, tetherEvaluations, fieldEvaluations;
+        public final long allocatedBytes, droppedTime;
+        public final double kineticEnergy, potentialEnergy;
+        public final Histogram stepTime, stepsPerFrame, frameTime;
+
+        private Snapshot(SimulationMetrics m) {
+            frames = m.frames;
+            steps = m.steps;
+            forceEvaluations = m.forceEvaluations;
+            springEvaluations = m.springEvaluations;
+            tetherEvaluations = m.tetherEvaluations;
+            fieldEvaluations = m.fieldEvaluations;
+            allocatedBytes = m.allocatedBytes;
+            droppedTime = m.droppedTime;
+            kineticEnergy = m.kineticEnergy;
+            potentialEnergy = m.potentialEnergy;
+            stepTime = m.stepTime.copy();
+            stepsPerFrame = m.stepsPerFrame.copy();
+            frameTime = m.frameTime.copy();
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package physics;
+
+/**
+ * The management interface of SimulationMetrics. Times are in seconds.
+ *
+ * @author Christoph Burschka &lt;christoph@burschka.de&gt;
+ */
+public interface SimulationMetricsMXBean {
+
+    public abstract long getFrames();
+
+    public abstract long getSteps();
+
+    public abstract double getMeanStepTime();
+
+    public abstract double getMaxStepTime();
+
+    public abstract double getStepTime99();
+
+    public abstract double getMeanStepsPerFrame();
+
+    public abstract long getMaxStepsPerFrame();
+
+    public abstract double getMeanFrameTime();
+
+    public abstract double getMaxFrameTime();
+
+    public abstract long getForceEvaluations();
+
+    public abstract long getSpringEvaluations();
+
+    public abstract long getTetherEvaluations();
+
+    public abstract long getFieldEvaluations();
+
+    public abstract long getAllocatedBytes();
+
+    public abstract double getDroppedTime();
+
+    public abstract double getKineticEnergy();
+
+    public abstract double getPotentialEnergy();
+
+    public abstract void reset();
+}
@@ -0,0 +1,224 @@
+package physics;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import javafx.animation.AnimationTimer;
+
+/**
+ * Drives many simulations from a single AnimationTimer.
+ *
+ * Each simulation that is assigned to a scheduler (see
+ * Box2DSpringSimulation.setScheduler) gives up its own AnimationTimer and
+ * worker thread. On every pulse, the scheduler exchanges changes with all
+ * running simulations on the JavaFX Application Thread, steps their engines
+ * on a fixed number of threads, and then applies the new positions.
+ *
+ * Simulations are stepped in order of priority, highest first. Once the frame
+ * budget of a pulse is used up, the simulations that have not started yet are
+ * skipped until the next pulse, so the total time spent on physics is bounded
+ * and goes to the most important simulations first.
+ *
+ * @author Christoph Burschka &lt;christoph@burschka.de&gt;
+ */
+public class SimulationScheduler {
+
+    private static final Comparator<Box2DSpringSimulation> PRIORITY
+            = Comparator.comparingInt(Box2DSpringSimulation::getPriority).reversed();
+
+    private final int threads;
+    private final ExecutorService pool;
+    private final AnimationTimer timer;
+    private volatile long frameBudget = Long.MAX_VALUE;
+
+    // Owned by the JavaFX Application Thread:
+    private final List<Box2DSpringSimulation> active = new ArrayList<>();
+    private final List<Box2DSpringSimulation> batch = new ArrayList<>();
+    private final List<Future<?>> futures = new ArrayList<>();
+    private boolean[] stepped = new boolean[0];
+    private boolean running;
+
+    /**
+     * Create a scheduler that steps all simulations on the JavaFX Application
+     * Thread.
+     */
+    public SimulationScheduler() {
+        this(1);
+    }
+
+    /**
+     * Create a scheduler that steps simulations on several threads.
+     *
+     * @param threads the number of threads, including the JavaFX Application
+     * Thread.
+     */
+    public SimulationScheduler(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be at least 1");
+        }
+        this.threads = threads;
+        pool = threads > 1 ? Executors.newFixedThreadPool(threads - 1, (runnable) -> {
+            Thread thread = new Thread(runnable, "SimulationScheduler");
+            thread.setDaemon(true);
+            return thread;
+        }) : null;
+        timer = new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                pulse(now);
+            }
+        };
+    }
+
+    /**
+     * Get the number of threads that step simulations.
+     *
+     * @return the number of threads, including the JavaFX Application Thread.
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Limit the time spent stepping simulations in each pulse.
+     *
+     * A simulation that is already stepping finishes its frame, within its
+     * own limits (see Box2DSpringSimulation.setFrameBudget).
+     *
+     * @param budget the time in seconds, or infinity for no limit.
+     */
+    public void setFrameBudget(double budget) {
+        frameBudget = budget == Double.POSITIVE_INFINITY ? Long.MAX_VALUE : (long) (budget * 1e9);
+    }
+
+    /**
+     * Get the time spent stepping simulations in each pulse.
+     *
+     * @return the time in seconds, or infinity for no limit.
+     */
+    public double getFrameBudget() {
+        return frameBudget == Long.MAX_VALUE ? Double.POSITIVE_INFINITY : frameBudget * 1e-9;
+    }
+
+    /**
+     * Get the number of simulations that are currently stepped.
+     *
+     * @return the number of running simulations that are awake.
+     */
+    public int getActiveCount() {
+        return active.size();
+    }
+
+    /**
+     * Stop the threads of this scheduler. Simulations that are still assigned
+     * to it are stepped on the JavaFX Application Thread.
+     */
+    public void shutdown() {
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Start stepping a simulation on every pulse.
+     */
+    void add(Box2DSpringSimulation simulation) {
+        if (!active.contains(simulation)) {
+            active.add(simulation);
+        }
+        if (!running) {
+            running = true;
+            timer.start();
+        }
+    }
+
+    /**
+     * Stop stepping a simulation.
+     */
+    void remove(Box2DSpringSimulation simulation) {
+        active.remove(simulation);
+    }
+
+    private void pulse(long now) {
+        if (active.isEmpty()) {
+            running = false;
+            timer.stop();
+            return;
+        }
+        long start = System.nanoTime();
+        long deadline = frameBudget == Long.MAX_VALUE ? Long.MAX_VALUE : start + frameBudget;
+
+        batch.clear();
+        batch.addAll(active);
+        // The sort is stable, so equal priorities keep their order.
+        batch.sort(PRIORITY);
+        int n = batch.size();
+        if (stepped.length < n) {
+            stepped = new boolean[n];
+        }
+        for (int i = 0; i < n; i++) {
+            batch.get(i).prepareFrame(now);
+            stepped[i] = false;
+        }
+
+        // Each thread takes the next simulation in order of priority.
+        AtomicInteger next = new AtomicInteger();
+        Runnable drain = () -> {
+            for (int i = next.getAndIncrement(); i < n; i = next.getAndIncrement()) {
+                if (System.nanoTime() >= deadline) {
+                    continue;
+                }
+                batch.get(i).stepFrame();
+                stepped[i] = true;
+            }
+        };
+        futures.clear();
+        if (pool != null && !pool.isShutdown()) {
+            for (int t = 1; t < Math.min(threads, n); t++) {
+                futures.add(pool.submit(drain));
+            }
+        }
+        drain.run();
+        for (Future<?> future : futures) {
+            await(future);
+        }
+
+        for (int i = 0; i < n; i++) {
+            if (stepped[i]) {
+                batch.get(i).finishFrame();
+            }
+        }
+    }
+
+    private static void await(Future<?> future) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    future.get();
+                    return;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -1,18 +1,30 @@
 package physics;
 
-import java.util.Objects;
+import java.util.Arrays;
+import javafx.beans.InvalidationListener;
+import javafx.beans.Observable;
 import javafx.geometry.Point2D;
 
 /**
  * An idealized mechanical spring.
  *
+ * A spring is a mutable handle: its parameters can be changed while it is part
+ * of a running simulation, which picks up the new values on its next step.
+ * Springs are compared by identity.
+ *
+ * Listeners are notified whenever a parameter changes; a layout uses this to
+ * find out that the springs it contains have changed.
+ *
  * @author Christoph Burschka &lt;christoph@burschka.de&gt;
  */
-public class Spring {
+public class Spring implements Observable {
+
+    private static final InvalidationListener[] NO_LISTENERS = new InvalidationListener[0];
 
-    private final double length;
-    private final double strength;
-    private final Point2D a, b;
+    private InvalidationListener[] listeners = NO_LISTENERS;
+    private double length;
+    private double strength;
+    private double ax, ay, bx, by;
 
     /**
      * Create a new spring.
@@ -29,14 +41,135 @@ public class Spring {
         assert strength > 0;
         this.length = length;
         this.strength = strength;
-        this.a = a;
-        this.b = b;
+        this.ax = a.getX();
+        this.ay = a.getY();
+        this.bx = b.getX();
+        this.by = b.getY();
     }
 
     public Spring(double length, double strength) {
         this(length, strength, new Point2D(0, 0), new Point2D(0, 0));
     }
 
+    @Override
+    public void addListener(InvalidationListener listener) {
+        listeners = Arrays.copyOf(listeners, listeners.length + 1);
+        listeners[listeners.length - 1] = listener;
+    }
+
+    @Override
+    public void removeListener(InvalidationListener listener) {
+        for (int i = 0; i < listeners.length; i++) {
+            if (listeners[i].equals(listener)) {
+                InvalidationListener[] remaining = new InvalidationListener[listeners.length - 1];
+                System.arraycopy(listeners, 0, remaining, 0, i);
+                System.arraycopy(listeners, i + 1, remaining, i, remaining.length - i);
+                listeners = remaining;
+                return;
+            }
+        }
+    }
+
+    private void changed() {
+        for (InvalidationListener listener : listeners) {
+            listener.invalidated(this);
+        }
+    }
+
+    /**
+     * Get the equilibrium length.
+     *
+     * @return the length at which the spring exerts no force.
+     */
+    public double getLength() {
+        return length;
+    }
+
+    /**
+     * Set the equilibrium length.
+     *
+     * @param length the length at which the spring exerts no force.
+     */
+    public void setLength(double length) {
+        this.length = length;
+        changed();
+    }
+
+    /**
+     * Get the stiffness constant.
+     *
+     * @return the stiffness constant k.
+     */
+    public double getStrength() {
+        return strength;
+    }
+
+    /**
+     * Set the stiffness constant.
+     *
+     * @param strength the stiffness constant k.
+     */
+    public void setStrength(double strength) {
+        this.strength = strength;
+        changed();
+    }
+
+    /**
+     * Get the anchor point on the first endpoint.
+     *
+     * @return the anchor, relative to the origin of the first endpoint.
+     */
+    public Point2D getAnchorA() {
+        return new Point2D(ax, ay);
+    }
+
+    /**
+     * Set the anchor point on the first endpoint.
+     *
+     * @param a the anchor, relative to the origin of the first endpoint.
+     */
+    public void setAnchorA(Point2D a) {
+        ax = a.getX();
+        ay = a.getY();
+        changed();
+    }
+
+    /**
+     * Get the anchor point on the second endpoint.
+     *
+     * @return the anchor, relative to the origin of the second endpoint.
+     */
+    public Point2D getAnchorB() {
+        return new Point2D(bx, by);
+    }
+
+    /**
+     * Set the anchor point on the second endpoint.
+     *
+     * @param b the anchor, relative to the origin of the second endpoint.
+     */
+    public void setAnchorB(Point2D b) {
+        bx = b.getX();
+        by = b.getY();
+        changed();
+    }
+
+    double getAnchorAX() {
+        return ax;
+    }
+
+    double getAnchorAY() {
+        return ay;
+    }
+
+    double getAnchorBX() {
+        return bx;
+    }
+
+    double getAnchorBY() {
+        return by;
+    }
+
     /**
      * Calculate the spring's currently exerted force.
      *
@@ -51,59 +184,35 @@ public class Spring {
      * Calculate the spring's currently exerted force.
      *
      * If the spring is infinitely compressed, the direction of the force is
-     * undefined. The return value will be a zero vector.
+     * undefined, and the first point is pushed along the negative y axis, so
+     * that the same points always give the same force.
+     *
+     * The simulation does not use this method: SpringEngine evaluates its
+     * springs itself, and pushes coinciding ends apart in a direction chosen
+     * by its seed and the two bodies, which a Spring does not know. The
+     * result only differs from the engine's in that case.
      *
      * @param a the first point
      * @param b the second point
      * @return the force acting on the first point (flip sign for second)
      */
     public Point2D getForce(Point2D a, Point2D b) {
-        Point2D relative = b.add(this.b).subtract(a.add(this.a));
+        Point2D relative = new Point2D(b.getX() + bx - a.getX() - ax, b.getY() + by - a.getY() - ay);
         double distance = relative.magnitude();
         if (distance > 0) {
             return relative.multiply(getForce(distance) / distance);
         }
         else {
-            // Apply force in a random direction:
-            double force = getForce(0);
-            double angle = Math.random() * 2 * Math.PI;
-            return new Point2D(Math.sin(angle) * force, Math.cos(angle)*force);
+            return new Point2D(0, getForce(0));
         }
     }
 
+    /**
+     * Create a new spring with the same parameters, oriented the other way.
+     *
+     * @return an independent copy with its anchors swapped.
+     */
     public Spring reverse() {
-        return new Spring(length, strength, b, a);
+        return new Spring(length, strength, getAnchorB(), getAnchorA());
     }
-
-    @Override
-    public boolean equals(Object obj) {
-        if (obj == null) {
-            return false;
-        }
-        if (getClass() != obj.getClass()) {
-            return false;
-        }
-        final Spring other = (Spring) obj;
-        if (Double.doubleToLongBits(this.length) != Double.doubleToLongBits(other.length)) {
-            return false;
-        }
-        if (Double.doubleToLongBits(this.strength) != Double.doubleToLongBits(other.strength)) {
-            return false;
-        }
-        if (!Objects.equals(this.a, other.a)) {
-            return false;
-        }
-        return Objects.equals(this.b, other.b);
-    }
-
-    @Override
-    public int hashCode() {
-        int hash = 3;
-        hash = 53 * hash + (int) (Double.doubleToLongBits(this.length) ^ (Double.doubleToLongBits(this.length) >>> 32));
-        hash = 53 * hash + (int) (Double.doubleToLongBits(this.strength) ^ (Double.doubleToLongBits(this.strength) >>> 32));
-        hash = 53 * hash + Objects.hashCode(this.a);
-        hash = 53 * hash + Objects.hashCode(this.b);
-        return hash;
-    }
-
 }
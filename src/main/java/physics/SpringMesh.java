@@ -0,0 +1,51 @@
+package physics;
+
+/**
+ * A complete graph of springs between a group of nodes.
+ *
+ * Every node in the mesh has a target position, and every pair of nodes is
+ * connected by a spring whose equilibrium length is the distance between their
+ * targets. Instead of evaluating all n² springs, the simulation groups distant
+ * nodes in a quadtree and treats each group as a single spring endpoint
+ * (Barnes-Hut approximation).
+ *
+ * @author Christoph Burschka &lt;christoph@burschka.de&gt;
+ */
+public class SpringMesh {
+
+    private final double strength;
+    private final double theta;
+
+    /**
+     * Create a new mesh.
+     *
+     * @param strength The stiffness constant k of each spring.
+     * @param theta The opening angle: a group of nodes is approximated when its
+     * size divided by its distance is less than this. At 0, every spring is
+     * evaluated exactly; 0.5 to 1 are typical values.
+     */
+    public SpringMesh(double strength, double theta) {
+        assert strength > 0;
+        assert theta >= 0;
+        this.strength = strength;
+        this.theta = theta;
+    }
+
+    /**
+     * Get the stiffness constant.
+     *
+     * @return the stiffness constant k of each spring.
+     */
+    public double getStrength() {
+        return strength;
+    }
+
+    /**
+     * Get the opening angle of the approximation.
+     *
+     * @return the opening angle.
+     */
+    public double getTheta() {
+        return theta;
+    }
+}
@@ -1,16 +1,21 @@
 package physics;
 
+import javafx.beans.InvalidationListener;
+import javafx.beans.Observable;
 import javafx.geometry.Point2D;
 
 /**
  * A tether is a spring that connects a node to a fixed point instead of a
  * second node.
  *
+ * Like springs, tethers are mutable and compared by identity, and notify
+ * their listeners when a parameter changes.
+ *
  * @author Christoph Burschka &lt;christoph@burschka.de&gt;
  */
-public class Tether {
+public class Tether implements Observable {
 
-    private Spring spring;
+    private final Spring spring;
 
     /**
      * Creates a tether of a particular length and strength, fixing the origin
@@ -37,11 +42,84 @@ public class Tether {
         spring = new Spring(length, strength, anchor, fixture);
     }
 
+    @Override
+    public void addListener(InvalidationListener listener) {
+        spring.addListener(listener);
+    }
+
+    @Override
+    public void removeListener(InvalidationListener listener) {
+        spring.removeListener(listener);
+    }
+
+    public double getLength() {
+        return spring.getLength();
+    }
+
+    public void setLength(double length) {
+        spring.setLength(length);
+    }
+
+    public double getStrength() {
+        return spring.getStrength();
+    }
+
+    public void setStrength(double strength) {
+        spring.setStrength(strength);
+    }
+
+    /**
+     * Get the anchor point.
+     *
+     * @return the anchor, as passed to the constructor.
+     */
+    public Point2D getAnchor() {
+        return spring.getAnchorA();
+    }
+
+    /**
+     * Move the anchor point.
+     *
+     * @param anchor the new anchor.
+     */
+    public void setAnchor(Point2D anchor) {
+        spring.setAnchorA(anchor);
+    }
+
+    /**
+     * Get the fixture point.
+     *
+     * @return the fixture, as passed to the constructor.
+     */
+    public Point2D getFixture() {
+        return spring.getAnchorB();
+    }
+
+    /**
+     * Move the fixture point.
+     *
+     * @param fixture the new fixture.
+     */
+    public void setFixture(Point2D fixture) {
+        spring.setAnchorB(fixture);
+    }
+
+    /**
+     * Get the spring that connects the node to the anchor.
+     *
+     * @return the spring; its second endpoint is the global origin.
+     */
+    Spring getSpring() {
+        return spring;
+    }
+
     /**
      * Calculates the force acting on the node.
      *
      * This requires only the position of the tethered node, and considers the
-     * anchor to be a node at the global origin.
+     * anchor to be a node at the global origin. As with Spring.getForce, a
+     * node on its anchor is pushed along the negative y axis, unlike in the
+     * simulation.
      *
      * @param a
      * @return
@@ -52,4 +52,18 @@ public class UniformForceField extends ForceField {
                 point.subtract(location).normalize(), intersection
         ).multiply(strength);
     }
+
+    @Override
+    public void force(double x, double y, double[] out) {
+        double dx = x - location.getX();
+        double dy = y - location.getY();
+        double distance = Math.sqrt(dx * dx + dy * dy);
+        if (distance > 0) {
+            dx /= distance;
+            dy /= distance;
+        }
+        double dot = dx * intersection.getX() + dy * intersection.getY();
+        out[0] = (dx - intersection.getX() * dot) * strength;
+        out[1] = (dy - intersection.getY() * dot) * strength;
+    }
 }
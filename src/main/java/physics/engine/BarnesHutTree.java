@@ -0,0 +1,241 @@
+package physics.engine;
+
+import java.util.Arrays;
+
+/**
+ * A quadtree over a set of points, used to approximate a spring mesh.
+ *
+ * Each cell stores the number of points it contains and the sums of their
+ * positions and target positions, so a distant cell can act as a single
+ * endpoint located at the centroid of its points. The tree is rebuilt on
+ * every step, reusing its arrays.
+ *
+ * @author Christoph Burschka &lt;christoph@burschka.de&gt;
+ */
+final class BarnesHutTree {
+
+    /**
+     * Cells are not split beyond this depth; coincident points share a leaf.
+     */
+    private static final int MAX_DEPTH = 32;
+    static final int STACK_SIZE = 3 * MAX_DEPTH + 4;
+
+    private int cells;
+    private int[] children = new int[0];
+    private int[] first = new int[0];
+    private int[] next = new int[0];
+    private boolean[] internal = new boolean[0];
+    private double[] cellX = new double[0], cellY = new double[0], cellSize = new double[0];
+    private int[] count = new int[0];
+    private double[] sumX = new double[0], sumY = new double[0];
+    private double[] sumTX = new double[0], sumTY = new double[0];
+    private final int[] stack = new int[STACK_SIZE];
+
+    private double[] x, y, tx, ty;
+
+    /**
+     * Build the tree.
+     *
+     * @param n the number of points
+     * @param x the current x coordinates
+     * @param y the current y coordinates
+     * @param tx the target x coordinates
+     * @param ty the target y coordinates
+     */
+    void build(int n, double[] x, double[] y, double[] tx, double[] ty) {
+        this.x = x;
+        this.y = y;
+        this.tx = tx;
+        this.ty = ty;
+        cells = 0;
+        if (n == 0) {
+            return;
+        }
+        if (next.length < n) {
+            next = new int[n];
+        }
+
+        double minX = x[0], minY = y[0], maxX = x[0], maxY = y[0];
+        for (int i = 1; i < n; i++) {
+            minX = Math.min(minX, x[i]);
+            minY = Math.min(minY, y[i]);
+            maxX = Math.max(maxX, x[i]);
+            maxY = Math.max(maxY, y[i]);
+        }
+        // Pad the root slightly, so that the maximum lies strictly inside.
+        double size = Math.max(maxX - minX, maxY - minY) * (1 + 1e-9) + 1e-9;
+        createCell(minX, minY, size);
+
+        for (int i = 0; i < n; i++) {
+            insert(i);
+        }
+
+        // Children are always created after their parents.
+        for (int c = cells - 1; c >= 0; c--) {
+            int k = 0;
+            double sx = 0, sy = 0, stx = 0, sty = 0;
+            if (internal[c]) {
+                for (int q = 0; q < 4; q++) {
+                    int d = children[4 * c + q];
+                    if (d >= 0) {
+                        k += count[d];
+                        sx += sumX[d];
+                        sy += sumY[d];
+                        stx += sumTX[d];
+                        sty += sumTY[d];
+                    }
+                }
+            } else {
+                for (int i = first[c]; i >= 0; i = next[i]) {
+                    k++;
+                    sx += x[i];
+                    sy += y[i];
+                    stx += tx[i];
+                    sty += ty[i];
+                }
+            }
+            count[c] = k;
+            sumX[c] = sx;
+            sumY[c] = sy;
+            sumTX[c] = stx;
+            sumTY[c] = sty;
+        }
+    }
+
+    private void insert(int i) {
+        int c = 0;
+        int depth = 0;
+        while (true) {
+            if (internal[c]) {
+                c = child(c, quadrant(c, x[i], y[i]));
+                depth++;
+            } else if (first[c] < 0 || depth >= MAX_DEPTH) {
+                next[i] = first[c];
+                first[c] = i;
+                return;
+            } else {
+                // Split the leaf and push its point down one level.
+                int j = first[c];
+                first[c] = -1;
+                internal[c] = true;
+                int d = child(c, quadrant(c, x[j], y[j]));
+                first[d] = j;
+                next[j] = -1;
+            }
+        }
+    }
+
+    private int quadrant(int c, double px, double py) {
+        double half = cellSize[c] * 0.5;
+        return (px >= cellX[c] + half ? 1 : 0) + (py >= cellY[c] + half ? 2 : 0);
+    }
+
+    private int child(int c, int q) {
+        if (children[4 * c + q] < 0) {
+            double half = cellSize[c] * 0.5;
+            int d = createCell(cellX[c] + (q & 1) * half, cellY[c] + (q >> 1) * half, half);
+            children[4 * c + q] = d;
+        }
+        return children[4 * c + q];
+    }
+
+    private int createCell(double cx, double cy, double size) {
+        if (cells == count.length) {
+            int capacity = Math.max(64, cells * 2);
+            children = Arrays.copyOf(children, 4 * capacity);
+            first = Arrays.copyOf(first, capacity);
+            internal = Arrays.copyOf(internal, capacity);
+            cellX = Arrays.copyOf(cellX, capacity);
+            cellY = Arrays.copyOf(cellY, capacity);
+            cellSize = Arrays.copyOf(cellSize, capacity);
+            count = Arrays.copyOf(count, capacity);
+            sumX = Arrays.copyOf(sumX, capacity);
+            sumY = Arrays.copyOf(sumY, capacity);
+            sumTX = Arrays.copyOf(sumTX, capacity);
+            sumTY = Arrays.copyOf(sumTY, capacity);
+        }
+        int c = cells++;
+        Arrays.fill(children, 4 * c, 4 * c + 4, -1);
+        first[c] = -1;
+        internal[c] = false;
+        cellX[c] = cx;
+        cellY[c] = cy;
+        cellSize[c] = size;
+        return c;
+    }
+
+    /**
+     * Calculate the total mesh force acting on one point.
+     *
+     * @param i the point
+     * @param strength the stiffness constant of each spring
+     * @param theta the opening angle
+     * @param out an array that will receive the x and y components of the
+     * force.
+     */
+    void force(int i, double strength, double theta, double[] out) {
+        force(i, strength, theta, stack, out);
+    }
+
+    /**
+     * Calculate the total mesh force acting on one point, using a separate
+     * stack so that several points can be evaluated at once.
+     *
+     * @param i the point
+     * @param strength the stiffness constant of each spring
+     * @param theta the opening angle
+     * @param stack an array of at least STACK_SIZE elements.
+     * @param out an array that will receive the x and y components of the
+     * force.
+     */
+    void force(int i, double strength, double theta, int[] stack, double[] out) {
+        double fx = 0, fy = 0;
+        double px = x[i], py = y[i];
+        int top = 0;
+        if (cells > 0) {
+            stack[top++] = 0;
+        }
+        while (top > 0) {
+            int c = stack[--top];
+            if (!internal[c]) {
+                for (int j = first[c]; j >= 0; j = next[j]) {
+                    if (j != i) {
+                        double dx = x[j] - px;
+                        double dy = y[j] - py;
+                        double distance = Math.sqrt(dx * dx + dy * dy);
+                        if (distance > 0) {
+                            double lx = tx[j] - tx[i];
+                            double ly = ty[j] - ty[i];
+                            double f = (distance - Math.sqrt(lx * lx + ly * ly)) * strength / distance;
+                            fx += dx * f;
+                            fy += dy * f;
+                        }
+                    }
+                }
+                continue;
+            }
+            int k = count[c];
+            double dx = sumX[c] / k - px;
+            double dy = sumY[c] / k - py;
+            double distance = Math.sqrt(dx * dx + dy * dy);
+            boolean inside = px >= cellX[c] && px < cellX[c] + cellSize[c]
+                    && py >= cellY[c] && py < cellY[c] + cellSize[c];
+            if (!inside && cellSize[c] < theta * distance) {
+                // Treat the whole cell as one endpoint at its centroid.
+                double lx = sumTX[c] / k - tx[i];
+                double ly = sumTY[c] / k - ty[i];
+                double f = k * (distance - Math.sqrt(lx * lx + ly * ly)) * strength / distance;
+                fx += dx * f;
+                fy += dy * f;
+            } else {
+                for (int q = 0; q < 4; q++) {
+                    if (children[4 * c + q] >= 0) {
+                        stack[top++] = children[4 * c + q];
+                    }
+                }
+            }
+        }
+        out[0] = fx;
+        out[1] = fy;
+    }
+}
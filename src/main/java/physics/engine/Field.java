@@ -0,0 +1,22 @@
+package physics.engine;
+
+/**
+ * A field that applies a force to every body, depending only on its position.
+ *
+ * When the engine evaluates forces in parallel, a field is evaluated from
+ * several threads at once.
+ *
+ * @author Christoph Burschka &lt;christoph@burschka.de&gt;
+ */
+public interface Field {
+
+    /**
+     * Calculate the force at a location.
+     *
+     * @param x the x coordinate of the location
+     * @param y the y coordinate of the location
+     * @param out an array that will receive the x and y components of the
+     * force.
+     */
+    public abstract void force(double x, double y, double[] out);
+}
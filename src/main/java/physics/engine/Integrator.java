@@ -0,0 +1,29 @@
+package physics.engine;
+
+/**
+ * Selects how SpringEngine moves its bodies.
+ *
+ * @author Christoph Burschka &lt;christoph@burschka.de&gt;
+ */
+public enum Integrator {
+
+    /**
+     * The bodies are moved by the JBox2D world. Bodies that have a shape
+     * collide with each other.
+     */
+    BOX2D,
+    /**
+     * The bodies are moved by semi-implicit Euler integration over the
+     * engine's own arrays, without stepping the JBox2D world. Nothing
+     * collides, which saves the broadphase, contact and solver work of every
+     * step.
+     */
+    EULER,
+    /**
+     * Like EULER, but the springs, tethers and friction are integrated by
+     * backward Euler, which is stable for any stiffness and time step. Each
+     * step solves a sparse linear system, so it costs more than an EULER step,
+     * but a stiff layout can take a single step per frame.
+     */
+    IMPLICIT
+}
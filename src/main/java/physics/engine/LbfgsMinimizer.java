@@ -0,0 +1,195 @@
+package physics.engine;
+
+/**
+ * A limited-memory BFGS minimiser for the potential energy of a layout.
+ *
+ * The energy itself is never evaluated, only its gradient (the negative of
+ * the forces), so the line search looks for a point where the slope along
+ * the search direction has dropped to a fraction of its initial value. The
+ * point holds the x and y coordinates of each body in turn, and the
+ * minimiser converges once the gradient acting on every body is within the
+ * tolerance. The arrays are reused between calls.
+ *
+ * @author Christoph Burschka &lt;christoph@burschka.de&gt;
+ */
+final class LbfgsMinimizer {
+
+    /**
+     * Calculates the gradient of the energy at a point.
+     */
+    interface Gradient {
+
+        void evaluate(double[] point, double[] gradient);
+    }
+
+    private static final int HISTORY = 8;
+    // The slope must drop to this fraction of its initial value.
+    private static final double CURVATURE = 0.9;
+    private static final int MAX_SEARCH = 30;
+
+    int evaluations;
+
+    private final double[][] historyS = new double[HISTORY][0];
+    private final double[][] historyY = new double[HISTORY][0];
+    private final double[] rho = new double[HISTORY], alpha = new double[HISTORY];
+    private int history, newest;
+    private double[] gradient = new double[0], direction = new double[0];
+    private double[] trial = new double[0], trialGradient = new double[0];
+
+    /**
+     * Move a point towards a local minimum of the energy.
+     *
+     * @param size the number of coordinates
+     * @param point the starting point, which receives the result
+     * @param function the gradient of the energy
+     * @param tolerance the largest gradient on any body at a minimum
+     * @param maxIterations the most iterations to take
+     * @param maxStep the furthest any body may move in one iteration.
+     * @return true if the minimiser converged.
+     */
+    boolean minimize(int size, double[] point, Gradient function, double tolerance, int maxIterations, double maxStep) {
+        if (gradient.length < size) {
+            gradient = new double[size];
+            direction = new double[size];
+            trial = new double[size];
+            trialGradient = new double[size];
+            for (int j = 0; j < HISTORY; j++) {
+                historyS[j] = new double[size];
+                historyY[j] = new double[size];
+            }
+        }
+        history = 0;
+        newest = -1;
+        evaluations = 1;
+        function.evaluate(point, gradient);
+
+        for (int iteration = 0; iteration < maxIterations; iteration++) {
+            if (norm(size, gradient) <= tolerance) {
+                return true;
+            }
+            searchDirection(size);
+            double slope = dot(size, gradient, direction);
+            if (!(slope < 0)) {
+                // The curvature estimate is useless; fall back to steepest descent.
+                history = 0;
+                searchDirection(size);
+                slope = dot(size, gradient, direction);
+            }
+
+            double length = 0;
+            for (int i = 0; i < size; i++) {
+                length = Math.max(length, Math.abs(direction[i]));
+            }
+            double limit = maxStep / length;
+            double step = Math.min(history > 0 ? 1 : 1 / length, limit);
+            double low = 0, high = Double.POSITIVE_INFINITY;
+            boolean accepted = false;
+            for (int search = 0; search < MAX_SEARCH && !accepted; search++) {
+                evaluateAt(size, point, step, function);
+                double trialSlope = dot(size, trialGradient, direction);
+                if (Math.abs(trialSlope) <= -CURVATURE * slope) {
+                    accepted = true;
+                } else if (trialSlope < 0) {
+                    low = step;
+                    if (step >= limit) {
+                        accepted = true;
+                    } else {
+                        step = high == Double.POSITIVE_INFINITY ? Math.min(2 * step, limit) : (low + high) / 2;
+                    }
+                } else {
+                    high = step;
+                    step = (low + high) / 2;
+                }
+            }
+            if (!accepted) {
+                if (low == 0) {
+                    // No step along this direction lowers the energy.
+                    if (history == 0) {
+                        return false;
+                    }
+                    history = 0;
+                    continue;
+                }
+                // The energy still falls up to the last step with a downward slope.
+                evaluateAt(size, point, low, function);
+            }
+
+            // Remember the step and the change in gradient, if they describe
+            // a positive curvature.
+            double sy = 0;
+            for (int i = 0; i < size; i++) {
+                sy += (trial[i] - point[i]) * (trialGradient[i] - gradient[i]);
+            }
+            if (sy > 1e-10) {
+                int slot = (newest + 1) % HISTORY;
+                for (int i = 0; i < size; i++) {
+                    historyS[slot][i] = trial[i] - point[i];
+                    historyY[slot][i] = trialGradient[i] - gradient[i];
+                }
+                rho[slot] = 1 / sy;
+                newest = slot;
+                history = Math.min(history + 1, HISTORY);
+            }
+            System.arraycopy(trial, 0, point, 0, size);
+            System.arraycopy(trialGradient, 0, gradient, 0, size);
+        }
+        return norm(size, gradient) <= tolerance;
+    }
+
+    /**
+     * Calculate the search direction by the two-loop recursion.
+     */
+    private void searchDirection(int size) {
+        for (int i = 0; i < size; i++) {
+            direction[i] = -gradient[i];
+        }
+        if (history == 0) {
+            return;
+        }
+        for (int k = 0; k < history; k++) {
+            int j = (newest - k + HISTORY) % HISTORY;
+            alpha[j] = rho[j] * dot(size, historyS[j], direction);
+            add(size, direction, -alpha[j], historyY[j]);
+        }
+        double[] y = historyY[newest];
+        double scale = 1 / (rho[newest] * dot(size, y, y));
+        for (int i = 0; i < size; i++) {
+            direction[i] *= scale;
+        }
+        for (int k = history - 1; k >= 0; k--) {
+            int j = (newest - k + HISTORY) % HISTORY;
+            double beta = rho[j] * dot(size, historyY[j], direction);
+            add(size, direction, alpha[j] - beta, historyS[j]);
+        }
+    }
+
+    private void evaluateAt(int size, double[] point, double step, Gradient function) {
+        for (int i = 0; i < size; i++) {
+            trial[i] = point[i] + step * direction[i];
+        }
+        evaluations++;
+        function.evaluate(trial, trialGradient);
+    }
+
+    private static double norm(int size, double[] v) {
+        double max = 0;
+        for (int i = 0; i + 1 < size; i += 2) {
+            max = Math.max(max, v[i] * v[i] + v[i + 1] * v[i + 1]);
+        }
+        return Math.sqrt(max);
+    }
+
+    private static double dot(int size, double[] u, double[] v) {
+        double sum = 0;
+        for (int i = 0; i < size; i++) {
+            sum += u[i] * v[i];
+        }
+        return sum;
+    }
+
+    private static void add(int size, double[] u, double factor, double[] v) {
+        for (int i = 0; i < size; i++) {
+            u[i] += factor * v[i];
+        }
+    }
+}
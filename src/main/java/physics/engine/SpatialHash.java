@@ -0,0 +1,117 @@
+package physics.engine;
+
+import java.util.Arrays;
+
+/**
+ * A uniform grid over axis-aligned boxes, stored in a hash table, that finds
+ * all pairs of overlapping boxes.
+ *
+ * Each box is entered in every cell it covers, and a pair is reported only by
+ * the cell containing the lower corner of its intersection, so that no pair is
+ * reported twice. For boxes that are evenly distributed and not much larger
+ * than a cell, building and querying take linear time.
+ *
+ * @author Christoph Burschka &lt;christoph@burschka.de&gt;
+ */
+final class SpatialHash {
+
+    int pairCount;
+    int[] pairA = new int[0], pairB = new int[0];
+
+    private int[] keyX = new int[0], keyY = new int[0], head = new int[0];
+    private boolean[] used = new boolean[0];
+    private int[] slotList = new int[0];
+    private int slots;
+    private int[] entryBox = new int[0], entryNext = new int[0];
+    private int entries;
+
+    /**
+     * Find all pairs of overlapping boxes. The pairs are stored in pairA and
+     * pairB, with pairA &lt; pairB, in an order that only depends on the
+     * boxes.
+     *
+     * @param n the number of boxes
+     * @param minX the left edges
+     * @param minY the top edges
+     * @param maxX the right edges
+     * @param maxY the bottom edges
+     * @param cellSize the width and height of a cell.
+     */
+    void build(int n, double[] minX, double[] minY, double[] maxX, double[] maxY, double cellSize) {
+        entries = 0;
+        for (int i = 0; i < n; i++) {
+            entries += (cell(maxX[i], cellSize) - cell(minX[i], cellSize) + 1)
+                    * (cell(maxY[i], cellSize) - cell(minY[i], cellSize) + 1);
+        }
+        int capacity = Integer.highestOneBit(Math.max(16, 2 * entries) - 1) << 1;
+        if (keyX.length < capacity) {
+            keyX = new int[capacity];
+            keyY = new int[capacity];
+            head = new int[capacity];
+            used = new boolean[capacity];
+            slotList = new int[capacity];
+        } else {
+            Arrays.fill(used, false);
+        }
+        if (entryBox.length < entries) {
+            entryBox = new int[entries];
+            entryNext = new int[entries];
+        }
+        int mask = capacity - 1;
+
+        slots = 0;
+        int e = 0;
+        for (int i = 0; i < n; i++) {
+            int x1 = cell(maxX[i], cellSize), y1 = cell(maxY[i], cellSize);
+            for (int cx = cell(minX[i], cellSize); cx <= x1; cx++) {
+                for (int cy = cell(minY[i], cellSize); cy <= y1; cy++) {
+                    int slot = (cx * 73856093 ^ cy * 19349663) & mask;
+                    while (used[slot] && (keyX[slot] != cx || keyY[slot] != cy)) {
+                        slot = (slot + 1) & mask;
+                    }
+                    if (!used[slot]) {
+                        used[slot] = true;
+                        keyX[slot] = cx;
+                        keyY[slot] = cy;
+                        head[slot] = -1;
+                        slotList[slots++] = slot;
+                    }
+                    // Prepend, so each list runs from the highest box down.
+                    entryBox[e] = i;
+                    entryNext[e] = head[slot];
+                    head[slot] = e++;
+                }
+            }
+        }
+
+        pairCount = 0;
+        for (int s = 0; s < slots; s++) {
+            int slot = slotList[s];
+            for (int p = head[slot]; p >= 0; p = entryNext[p]) {
+                int b = entryBox[p];
+                for (int q = entryNext[p]; q >= 0; q = entryNext[q]) {
+                    int a = entryBox[q];
+                    if (minX[a] > maxX[b] || minX[b] > maxX[a] || minY[a] > maxY[b] || minY[b] > maxY[a]) {
+                        continue;
+                    }
+                    // Only the cell of the intersection's lower corner reports the pair.
+                    if (cell(Math.max(minX[a], minX[b]), cellSize) != keyX[slot]
+                            || cell(Math.max(minY[a], minY[b]), cellSize) != keyY[slot]) {
+                        continue;
+                    }
+                    if (pairCount == pairA.length) {
+                        pairA = Arrays.copyOf(pairA, Math.max(16, 2 * pairCount));
+                        pairB = Arrays.copyOf(pairB, pairA.length);
+                    }
+                    pairA[pairCount] = a;
+                    pairB[pairCount] = b;
+                    pairCount++;
+                }
+            }
+        }
+    }
+
+    private static int cell(double coordinate, double cellSize) {
+        return (int) Math.floor(coordinate / cellSize);
+    }
+}
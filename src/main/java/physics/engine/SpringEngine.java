@@ -0,0 +1,2012 @@
+package physics.engine;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import org.apache.commons.math3.exception.MaxCountExceededException;
+import org.apache.commons.math3.linear.ArrayRealVector;
+import org.apache.commons.math3.linear.ConjugateGradient;
+import org.apache.commons.math3.linear.RealLinearOperator;
+import org.apache.commons.math3.linear.RealVector;
+import org.jbox2d.collision.AABB;
+import org.jbox2d.collision.shapes.MassData;
+import org.jbox2d.collision.shapes.Shape;
+import org.jbox2d.collision.shapes.ShapeType;
+import org.jbox2d.common.Transform;
+import org.jbox2d.common.Vec2;
+import org.jbox2d.dynamics.Body;
+import org.jbox2d.dynamics.BodyDef;
+import org.jbox2d.dynamics.BodyType;
+import org.jbox2d.dynamics.World;
+
+/**
+ * A spring simulation that does not depend on JavaFX.
+ *
+ * Bodies, springs and tethers are identified by small integers that remain
+ * fixed until they are removed, after which they may be reused. All positions
+ * and parameters are plain coordinates. Bodies are moved by the forces of
+ * springs, tethers, the spring mesh, fields and overlap repulsion, which are
+ * evaluated without allocating any objects. Bodies with a shape also collide,
+ * but only under Integrator.BOX2D.
+ *
+ * Forces can be evaluated in parallel on a ForkJoinPool. The work is split
+ * into chunks of a fixed size, and the forces of each chunk are added up in
+ * the same order as in a serial step, so the result does not depend on the
+ * number of threads. The direction of a spring whose ends coincide comes from
+ * the seed rather than a shared random generator, so it is the same on every
+ * thread as well.
+ *
+ * Bodies that are connected by springs or the spring mesh form an island;
+ * immovable bodies do not join islands. Each island comes to rest on its own:
+ * once it has moved slower than the sleep thresholds for long enough, its
+ * bodies are put to sleep and no longer evaluated, until something acting on
+ * the island changes.
+ *
+ * The bodies are moved either by a JBox2D world, in which bodies with a shape
+ * collide, or by the engine's own integrator (see Integrator).
+ *
+ * The engine is deterministic: the same bodies, forces and steps always lead
+ * to the same positions. Where a force has no direction, because the ends of
+ * a spring coincide, a direction is chosen from the seed of the engine (see
+ * setSeed) and the bodies involved.
+ *
+ * The JavaFX binding is provided by physics.Box2DSpringSimulation.
+ *
+ * @author Christoph Burschka &lt;christoph@burschka.de&gt;
+ */
+public class SpringEngine {
+
+    private static final int ITER_VELOCITY = 6, ITER_POS = 3;
+    // The furthest a body can move in one step, as in JBox2D.
+    private static final double MAX_TRANSLATION = 2;
+    // How long an island must rest while settling, if no sleep time is set.
+    private static final double SETTLE_TIME = 0.1;
+    // The furthest a body can move in one iteration of the minimiser.
+    private static final double MAX_DISPLACEMENT = 100;
+
+    private final World world;
+    private Integrator integrator = Integrator.BOX2D;
+    private Body[] bodies = new Body[0];
+    private Shape[] shapes = new Shape[0];
+    private double[] masses = new double[0];
+    private double[] x = new double[0], y = new double[0];
+    private double[] vx = new double[0], vy = new double[0];
+    private double[] fx = new double[0], fy = new double[0];
+    private final Deque<Integer> freeIds = new ArrayDeque<>();
+
+    private final SpringTable springs = new SpringTable();
+    private final SpringTable tethers = new SpringTable();
+
+    private double meshStrength = 0, meshTheta = 0;
+    private boolean[] meshMember = new boolean[0];
+    private double[] meshTargetX = new double[0], meshTargetY = new double[0];
+    private int meshCount = -1;
+    private int[] meshNode = new int[0];
+    private double[] meshX = new double[0], meshY = new double[0];
+    private double[] meshTX = new double[0], meshTY = new double[0];
+    private final BarnesHutTree tree = new BarnesHutTree();
+
+    private int[] island = new int[0];
+    // The bodies of each island form a cycle, so an island can be woken
+    // without scanning every body.
+    private int[] islandNext = new int[0];
+    private boolean[] sleeping = new boolean[0];
+    private double[] islandRest = new double[0];
+    private double[] islandSpeed = new double[0], islandEnergy = new double[0];
+    private boolean islandsDirty = false;
+    private double sleepVelocity = 0, sleepEnergy = 0, sleepTime = Double.POSITIVE_INFINITY;
+
+    private double overlapStrength = 0;
+    private final SpatialHash grid = new SpatialHash();
+    private final AABB extent = new AABB();
+    private final Transform identity = new Transform();
+    private int[] boxBody = new int[0];
+    private boolean[] boxRound = new boolean[0];
+    private double[] boxMinX = new double[0], boxMinY = new double[0];
+    private double[] boxMaxX = new double[0], boxMaxY = new double[0];
+    private double[] overlapFX = new double[0], overlapFY = new double[0];
+    private double[] stiffness = new double[0];
+
+    private int[] dof = new int[0];
+    private int dofCount;
+    private double[] springJXX = new double[0], springJXY = new double[0], springJYY = new double[0];
+    private double[] tetherJXX = new double[0], tetherJXY = new double[0], tetherJYY = new double[0];
+    private final double[] jacobian = new double[3];
+    private int maxIterations = 200;
+    private double accuracy = 1e-6;
+    private ConjugateGradient solver;
+    private final ImplicitSystem implicit = new ImplicitSystem();
+    private final LbfgsMinimizer minimizer = new LbfgsMinimizer();
+    private final LbfgsMinimizer.Gradient energyGradient = this::energyGradient;
+
+    private final List<Field> fields = new ArrayList<>();
+    private Field[] fieldArray = new Field[0];
+    private double friction = 0.5;
+    private double evaluatedFriction;
+    private long seed = 0;
+
+    private double[] springFX = new double[0], springFY = new double[0];
+    private double[] tetherFX = new double[0], tetherFY = new double[0];
+    private double[] meshFX = new double[0], meshFY = new double[0];
+    private final Vec2 force = new Vec2();
+
+    private boolean counting = false;
+    private long forceEvaluations, springEvaluations, tetherEvaluations, fieldEvaluations;
+
+    private static final int CHUNK_SIZE = 256;
+    private ForkJoinPool pool = null;
+    private int parallelThreshold = 2000;
+    private int bodyCount = 0;
+    private double[][] scratch = {new double[2]};
+    private int[][] stacks = {new int[BarnesHutTree.STACK_SIZE]};
+    private final Chunk springChunk = this::evaluateSprings;
+    private final Chunk tetherChunk = this::evaluateTethers;
+    private final Chunk meshChunk = this::evaluateMesh;
+    private final Chunk bodyChunk = this::evaluateBodies;
+    private final Chunk overlapChunk = this::evaluateOverlaps;
+
+    public SpringEngine() {
+        // New zero-gravity world:
+        world = new World(new Vec2(0, 0));
+    }
+
+    /**
+     * Add a body without a shape.
+     *
+     * @param x the initial x coordinate
+     * @param y the initial y coordinate
+     * @param mass the mass, or infinity for an immovable body.
+     * @return the identifier of the new body.
+     */
+    public int createBody(double x, double y, double mass) {
+        return createBody(x, y, mass, null);
+    }
+
+    /**
+     * Add a body.
+     *
+     * The mass is distributed over the shape. The shape collides with the
+     * shapes of other bodies only under Integrator.BOX2D; the other
+     * integrators ignore collisions, and only use the shape for overlap
+     * repulsion (see setOverlapRepulsion).
+     *
+     * @param x the initial x coordinate
+     * @param y the initial y coordinate
+     * @param mass the mass, or infinity for an immovable body.
+     * @param shape the shape of the body, or null.
+     * @return the identifier of the new body.
+     */
+    public int createBody(double x, double y, double mass, Shape shape) {
+        if (islandsDirty) {
+            // Stale islands may lead through a reused identifier.
+            buildIslands();
+        }
+        Integer free = freeIds.poll();
+        int id = free == null ? bodies.length : free;
+        if (id >= bodies.length) {
+            grow();
+        }
+        BodyDef def = new BodyDef();
+        def.position.set((float) x, (float) y);
+        // Infinite-mass bodies are immovable.
+        def.type = mass == Double.POSITIVE_INFINITY ? BodyType.STATIC : BodyType.DYNAMIC;
+        bodies[id] = world.createBody(def);
+        shapes[id] = shape;
+        this.x[id] = def.position.x;
+        this.y[id] = def.position.y;
+        vx[id] = 0;
+        vy[id] = 0;
+        masses[id] = mass;
+        updateMass(id);
+        bodyCount++;
+        island[id] = id;
+        islandNext[id] = id;
+        islandRest[id] = 0;
+        // Immovable bodies never need to be evaluated.
+        sleeping[id] = mass == Double.POSITIVE_INFINITY;
+        return id;
+    }
+
+    private void grow() {
+        int old = bodies.length;
+        int capacity = Math.max(16, 2 * old);
+        bodies = Arrays.copyOf(bodies, capacity);
+        shapes = Arrays.copyOf(shapes, capacity);
+        masses = Arrays.copyOf(masses, capacity);
+        x = Arrays.copyOf(x, capacity);
+        y = Arrays.copyOf(y, capacity);
+        vx = Arrays.copyOf(vx, capacity);
+        vy = Arrays.copyOf(vy, capacity);
+        fx = Arrays.copyOf(fx, capacity);
+        fy = Arrays.copyOf(fy, capacity);
+        meshMember = Arrays.copyOf(meshMember, capacity);
+        meshTargetX = Arrays.copyOf(meshTargetX, capacity);
+        meshTargetY = Arrays.copyOf(meshTargetY, capacity);
+        island = Arrays.copyOf(island, capacity);
+        islandNext = Arrays.copyOf(islandNext, capacity);
+        sleeping = Arrays.copyOf(sleeping, capacity);
+        islandRest = Arrays.copyOf(islandRest, capacity);
+        islandSpeed = Arrays.copyOf(islandSpeed, capacity);
+        islandEnergy = Arrays.copyOf(islandEnergy, capacity);
+        // The first new identifier is taken by the caller.
+        for (int i = capacity - 1; i > old; i--) {
+            freeIds.push(i);
+        }
+    }
+
+    private void updateMass(int id) {
+        Body body = bodies[id];
+        if (body.getFixtureList() != null) {
+            body.destroyFixture(body.getFixtureList());
+        }
+        if (shapes[id] != null) {
+            MassData m = new MassData();
+            shapes[id].computeMass(m, 1);
+            body.createFixture(shapes[id], (float) masses[id] / m.mass);
+        } else if (body.getType() == BodyType.DYNAMIC) {
+            MassData m = new MassData();
+            m.mass = (float) masses[id];
+            body.setMassData(m);
+        }
+    }
+
+    /**
+     * Remove a body, along with its springs, tethers and mesh target.
+     *
+     * @param id the body.
+     */
+    public void removeBody(int id) {
+        // The island may fall apart once the body is gone.
+        wake(id);
+        islandsDirty = true;
+        springs.removeAll(id);
+        tethers.removeAll(id);
+        clearMeshTarget(id);
+        world.destroyBody(bodies[id]);
+        bodies[id] = null;
+        shapes[id] = null;
+        bodyCount--;
+        freeIds.push(id);
+    }
+
+    /**
+     * Check whether a body exists.
+     *
+     * @param id the body identifier
+     * @return true if the body exists.
+     */
+    public boolean containsBody(int id) {
+        return id >= 0 && id < bodies.length && bodies[id] != null;
+    }
+
+    /**
+     * Get the number of identifiers in use, so that every body identifier is
+     * less than this.
+     *
+     * @return the size of the body tables.
+     */
+    public int getCapacity() {
+        return bodies.length;
+    }
+
+    /**
+     * Set the mass of a body. If set to infinity, the body is fixed in place.
+     *
+     * @param id the body
+     * @param mass the mass
+     */
+    public void setMass(int id, double mass) {
+        Body body = bodies[id];
+        wake(id);
+        if (mass == Double.POSITIVE_INFINITY) {
+            body.setType(BodyType.STATIC);
+        } else if (masses[id] == Double.POSITIVE_INFINITY) {
+            body.setType(BodyType.DYNAMIC);
+        }
+        if ((mass == Double.POSITIVE_INFINITY) != (masses[id] == Double.POSITIVE_INFINITY)) {
+            // The body joins or splits the islands it is connected to.
+            sleeping[id] = mass == Double.POSITIVE_INFINITY;
+            islandsDirty = true;
+        }
+        masses[id] = mass;
+        updateMass(id);
+    }
+
+    public double getMass(int id) {
+        return masses[id];
+    }
+
+    public double getX(int id) {
+        return integrator != Integrator.BOX2D ? x[id] : bodies[id].getPosition().x;
+    }
+
+    public double getY(int id) {
+        return integrator != Integrator.BOX2D ? y[id] : bodies[id].getPosition().y;
+    }
+
+    /**
+     * Move a body.
+     *
+     * @param id the body
+     * @param x the new x coordinate
+     * @param y the new y coordinate
+     */
+    public void setPosition(int id, double x, double y) {
+        if (integrator != Integrator.BOX2D) {
+            if (this.x[id] != x || this.y[id] != y) {
+                this.x[id] = x;
+                this.y[id] = y;
+                wake(id);
+            }
+            return;
+        }
+        Body body = bodies[id];
+        Vec2 p = body.getPosition();
+        if (p.x != (float) x || p.y != (float) y) {
+            body.setTransform(new Vec2((float) x, (float) y), body.getAngle());
+            wake(id);
+        }
+    }
+
+    public double getVelocityX(int id) {
+        return integrator != Integrator.BOX2D ? vx[id] : bodies[id].getLinearVelocity().x;
+    }
+
+    public double getVelocityY(int id) {
+        return integrator != Integrator.BOX2D ? vy[id] : bodies[id].getLinearVelocity().y;
+    }
+
+    public void setVelocity(int id, double vx, double vy) {
+        if (integrator != Integrator.BOX2D) {
+            if (this.vx[id] != vx || this.vy[id] != vy) {
+                this.vx[id] = vx;
+                this.vy[id] = vy;
+                wake(id);
+            }
+            return;
+        }
+        Vec2 v = bodies[id].getLinearVelocity();
+        if (v.x != (float) vx || v.y != (float) vy) {
+            bodies[id].setLinearVelocity(new Vec2((float) vx, (float) vy));
+            wake(id);
+        }
+    }
+
+    /**
+     * Freeze or release a body. An inactive body is not moved by the
+     * simulation, but still acts on the bodies it is connected to.
+     *
+     * @param id the body
+     * @param active false to freeze the body.
+     */
+    public void setActive(int id, boolean active) {
+        if (bodies[id].isActive() != active) {
+            bodies[id].setActive(active);
+            wake(id);
+        }
+    }
+
+    /**
+     * Get the highest speed of any movable body.
+     *
+     * @return the speed, in units per second.
+     */
+    public double getMaxSpeed() {
+        double max = 0;
+        for (int i = 0; i < bodies.length; i++) {
+            if (bodies[i] != null && bodies[i].getType() == BodyType.DYNAMIC) {
+                double v2 = getVelocityX(i) * getVelocityX(i) + getVelocityY(i) * getVelocityY(i);
+                max = Math.max(max, Math.sqrt(v2));
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Get the total kinetic energy of all movable bodies.
+     *
+     * @return the sum of mv²/2.
+     */
+    public double getKineticEnergy() {
+        double energy = 0;
+        for (int i = 0; i < bodies.length; i++) {
+            if (bodies[i] != null && bodies[i].getType() == BodyType.DYNAMIC) {
+                energy += 0.5 * masses[i] * (getVelocityX(i) * getVelocityX(i) + getVelocityY(i) * getVelocityY(i));
+            }
+        }
+        return energy;
+    }
+
+    /**
+     * Get the total potential energy stored in springs and tethers.
+     *
+     * Fields only define forces, and the mesh is approximated, so neither is
+     * included.
+     *
+     * @return the sum of k(d - l)²/2.
+     */
+    public double getPotentialEnergy() {
+        double energy = 0;
+        SpringTable s = springs;
+        for (int i = 0; i < s.count; i++) {
+            int a = s.a[i];
+            int b = s.b[i];
+            double dx = getX(b) + s.bx[i] - getX(a) - s.ax[i];
+            double dy = getY(b) + s.by[i] - getY(a) - s.ay[i];
+            double stretch = Math.sqrt(dx * dx + dy * dy) - s.length[i];
+            energy += 0.5 * s.strength[i] * stretch * stretch;
+        }
+        SpringTable t = tethers;
+        for (int i = 0; i < t.count; i++) {
+            int a = t.a[i];
+            double dx = t.bx[i] - getX(a) - t.ax[i];
+            double dy = t.by[i] - getY(a) - t.ay[i];
+            double stretch = Math.sqrt(dx * dx + dy * dy) - t.length[i];
+            energy += 0.5 * t.strength[i] * stretch * stretch;
+        }
+        return energy;
+    }
+
+    /**
+     * Choose whether the engine counts its force evaluations. Counting is off
+     * by default.
+     *
+     * @param counting true to count evaluations.
+     */
+    public void setCounting(boolean counting) {
+        this.counting = counting;
+    }
+
+    public boolean isCounting() {
+        return counting;
+    }
+
+    /**
+     * Get the number of times the forces on all bodies were evaluated, which
+     * is once per step and once per trial point while minimising.
+     *
+     * @return the number of evaluations since the counters were reset.
+     */
+    public long getForceEvaluations() {
+        return forceEvaluations;
+    }
+
+    /**
+     * Get the number of spring forces that were evaluated.
+     *
+     * @return the number of evaluations since the counters were reset.
+     */
+    public long getSpringEvaluations() {
+        return springEvaluations;
+    }
+
+    /**
+     * Get the number of tether forces that were evaluated.
+     *
+     * @return the number of evaluations since the counters were reset.
+     */
+    public long getTetherEvaluations() {
+        return tetherEvaluations;
+    }
+
+    /**
+     * Get the number of field forces that were evaluated, one for each field
+     * and awake body.
+     *
+     * @return the number of evaluations since the counters were reset.
+     */
+    public long getFieldEvaluations() {
+        return fieldEvaluations;
+    }
+
+    /**
+     * Set all evaluation counters to zero.
+     */
+    public void resetCounters() {
+        forceEvaluations = 0;
+        springEvaluations = 0;
+        tetherEvaluations = 0;
+        fieldEvaluations = 0;
+    }
+
+    /**
+     * Connect two bodies by a spring.
+     *
+     * The force acts on the first body, and in the opposite direction on the
+     * second.
+     *
+     * @param a the first body
+     * @param b the second body
+     * @param length the equilibrium length
+     * @param strength the stiffness constant
+     * @param ax the x coordinate of the anchor, relative to the first body
+     * @param ay the y coordinate of the anchor, relative to the first body
+     * @param bx the x coordinate of the anchor, relative to the second body
+     * @param by the y coordinate of the anchor, relative to the second body
+     * @return the identifier of the new spring.
+     */
+    public int addSpring(int a, int b, double length, double strength, double ax, double ay, double bx, double by) {
+        wake(a);
+        wake(b);
+        if (!islandsDirty && isMovable(a) && isMovable(b)) {
+            union(a, b);
+        }
+        return springs.add(a, b, length, strength, ax, ay, bx, by);
+    }
+
+    /**
+     * Change the parameters of a spring.
+     *
+     * @param id the spring
+     * @param length the equilibrium length
+     * @param strength the stiffness constant
+     * @param ax the x coordinate of the anchor, relative to the first body
+     * @param ay the y coordinate of the anchor, relative to the first body
+     * @param bx the x coordinate of the anchor, relative to the second body
+     * @param by the y coordinate of the anchor, relative to the second body
+     */
+    public void setSpring(int id, double length, double strength, double ax, double ay, double bx, double by) {
+        if (springs.set(id, length, strength, ax, ay, bx, by)) {
+            wake(springs.getA(id));
+            wake(springs.getB(id));
+        }
+    }
+
+    public void removeSpring(int id) {
+        wake(springs.getA(id));
+        wake(springs.getB(id));
+        islandsDirty = true;
+        springs.remove(id);
+    }
+
+    public void clearSprings() {
+        wakeAll();
+        islandsDirty = true;
+        springs.clear();
+    }
+
+    /**
+     * Tether a body to a fixed point.
+     *
+     * @param a the body
+     * @param length the equilibrium length
+     * @param strength the stiffness constant
+     * @param ax the x coordinate of the anchor, relative to the body
+     * @param ay the y coordinate of the anchor, relative to the body
+     * @param bx the x coordinate of the fixed point
+     * @param by the y coordinate of the fixed point
+     * @return the identifier of the new tether.
+     */
+    public int addTether(int a, double length, double strength, double ax, double ay, double bx, double by) {
+        wake(a);
+        return tethers.add(a, -1, length, strength, ax, ay, bx, by);
+    }
+
+    /**
+     * Change the parameters of a tether.
+     *
+     * @param id the tether
+     * @param length the equilibrium length
+     * @param strength the stiffness constant
+     * @param ax the x coordinate of the anchor, relative to the body
+     * @param ay the y coordinate of the anchor, relative to the body
+     * @param bx the x coordinate of the fixed point
+     * @param by the y coordinate of the fixed point
+     */
+    public void setTether(int id, double length, double strength, double ax, double ay, double bx, double by) {
+        if (tethers.set(id, length, strength, ax, ay, bx, by)) {
+            wake(tethers.getA(id));
+        }
+    }
+
+    public void removeTether(int id) {
+        wake(tethers.getA(id));
+        tethers.remove(id);
+    }
+
+    public void clearTethers() {
+        wakeAll();
+        tethers.clear();
+    }
+
+    /**
+     * Enable the spring mesh between all bodies that have a mesh target (see
+     * physics.SpringMesh).
+     *
+     * @param strength the stiffness constant of each spring
+     * @param theta the opening angle, or 0 to evaluate every spring exactly.
+     */
+    public void setMesh(double strength, double theta) {
+        if (strength == meshStrength && theta == meshTheta) {
+            return;
+        }
+        wakeAll();
+        islandsDirty = true;
+        meshStrength = strength;
+        meshTheta = theta;
+    }
+
+    /**
+     * Disable the spring mesh. The mesh targets are kept.
+     */
+    public void clearMesh() {
+        setMesh(0, 0);
+    }
+
+    /**
+     * Add a body to the spring mesh.
+     *
+     * @param id the body
+     * @param x the x coordinate of the target position
+     * @param y the y coordinate of the target position
+     */
+    public void setMeshTarget(int id, double x, double y) {
+        if (!meshMember[id]) {
+            meshMember[id] = true;
+            meshCount = -1;
+            if (meshStrength > 0) {
+                wakeAll();
+                islandsDirty = true;
+            }
+        } else if (meshTargetX[id] == x && meshTargetY[id] == y) {
+            return;
+        }
+        wake(id);
+        meshTargetX[id] = x;
+        meshTargetY[id] = y;
+    }
+
+    public void clearMeshTarget(int id) {
+        if (meshMember[id]) {
+            meshMember[id] = false;
+            meshCount = -1;
+            if (meshStrength > 0) {
+                wakeAll();
+                islandsDirty = true;
+            }
+        }
+    }
+
+    public void addField(Field field) {
+        wakeAll();
+        fields.add(field);
+        fieldArray = fields.toArray(new Field[0]);
+    }
+
+    public void removeField(Field field) {
+        wakeAll();
+        fields.remove(field);
+        fieldArray = fields.toArray(new Field[0]);
+    }
+
+    public void clearFields() {
+        wakeAll();
+        fields.clear();
+        fieldArray = new Field[0];
+    }
+
+    /**
+     * Get the current friction value.
+     *
+     * @return the friction, as the proportion of velocity and opposing force.
+     */
+    public double getFriction() {
+        return friction;
+    }
+
+    /**
+     * Set the friction value.
+     *
+     * @param friction the friction, as the proportion of velocity and opposing
+     * force.
+     */
+    public void setFriction(double friction) {
+        if (friction != this.friction) {
+            wakeAll();
+            this.friction = friction;
+        }
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Set the seed that chooses the direction in which the ends of a spring
+     * are pushed apart when they coincide. Engines with the same seed push
+     * them in the same direction.
+     *
+     * @param seed the seed; the default is 0.
+     */
+    public void setSeed(long seed) {
+        if (seed != this.seed) {
+            wakeAll();
+            this.seed = seed;
+        }
+    }
+
+    /**
+     * Push apart bodies whose shapes overlap.
+     *
+     * Each shape is treated as its bounding box, or as a circle if it is one,
+     * and the force grows with the depth of the overlap. Bodies without a
+     * shape are ignored. Only nearby pairs are tested, using a grid whose cells
+     * are about the size of an average shape.
+     *
+     * @param strength the force per unit of overlap, or 0 to disable.
+     */
+    public void setOverlapRepulsion(double strength) {
+        if (strength != overlapStrength) {
+            wakeAll();
+            overlapStrength = strength;
+        }
+    }
+
+    public double getOverlapRepulsion() {
+        return overlapStrength;
+    }
+
+    public Integrator getIntegrator() {
+        return integrator;
+    }
+
+    /**
+     * Choose how the bodies are moved. The positions and velocities are
+     * carried over.
+     *
+     * @param integrator the integrator.
+     */
+    public void setIntegrator(Integrator integrator) {
+        if ((integrator == Integrator.BOX2D) == (this.integrator == Integrator.BOX2D)) {
+            this.integrator = integrator;
+            return;
+        }
+        for (int i = 0; i < bodies.length; i++) {
+            Body body = bodies[i];
+            if (body == null) {
+                continue;
+            }
+            if (integrator != Integrator.BOX2D) {
+                x[i] = body.getPosition().x;
+                y[i] = body.getPosition().y;
+                vx[i] = body.getLinearVelocity().x;
+                vy[i] = body.getLinearVelocity().y;
+            } else {
+                body.setTransform(new Vec2((float) x[i], (float) y[i]), body.getAngle());
+                body.setLinearVelocity(new Vec2((float) vx[i], (float) vy[i]));
+                body.setAwake(!sleeping[i]);
+            }
+        }
+        this.integrator = integrator;
+    }
+
+    /**
+     * Evaluate forces on a pool of threads.
+     *
+     * All fields must then be safe to evaluate from several threads at once.
+     *
+     * @param pool the pool, or null to evaluate forces on the stepping thread.
+     */
+    public void setPool(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    public ForkJoinPool getPool() {
+        return pool;
+    }
+
+    /**
+     * Set the number of bodies from which forces are evaluated in parallel,
+     * if a pool is set. Smaller layouts are faster on a single thread.
+     *
+     * @param bodies the number of bodies.
+     */
+    public void setParallelThreshold(int bodies) {
+        parallelThreshold = bodies;
+    }
+
+    public int getParallelThreshold() {
+        return parallelThreshold;
+    }
+
+    /**
+     * Set the speed below which an island is at rest.
+     *
+     * @param sleepVelocity the speed, in units per second.
+     */
+    public void setSleepVelocity(double sleepVelocity) {
+        this.sleepVelocity = sleepVelocity;
+    }
+
+    public double getSleepVelocity() {
+        return sleepVelocity;
+    }
+
+    /**
+     * Set the kinetic energy below which an island is at rest.
+     *
+     * @param sleepEnergy the total kinetic energy of the island.
+     */
+    public void setSleepEnergy(double sleepEnergy) {
+        this.sleepEnergy = sleepEnergy;
+    }
+
+    public double getSleepEnergy() {
+        return sleepEnergy;
+    }
+
+    /**
+     * Set how long an island must remain at rest before it is put to sleep.
+     *
+     * @param sleepTime the simulated time in seconds, or infinity to never
+     * sleep (the default).
+     */
+    public void setSleepTime(double sleepTime) {
+        this.sleepTime = sleepTime;
+    }
+
+    public double getSleepTime() {
+        return sleepTime;
+    }
+
+    /**
+     * Check whether every island has been put to sleep.
+     *
+     * @return true if no body will move until something changes.
+     */
+    public boolean isAsleep() {
+        for (int i = 0; i < bodies.length; i++) {
+            if (bodies[i] != null && !sleeping[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Check whether the island containing a body is asleep.
+     *
+     * @param id the body
+     * @return true if the body is asleep or immovable.
+     */
+    public boolean isAsleep(int id) {
+        return sleeping[id];
+    }
+
+    /**
+     * Wake the island containing a body, or if the body is immovable, the
+     * islands of every body it is connected to.
+     *
+     * @param id the body
+     */
+    public void wake(int id) {
+        if (!isMovable(id)) {
+            // An island that is already awake returns at once.
+            SpringTable s = springs;
+            for (int end = s.firstEnd(id); end >= 0; end = s.nextEnd(end)) {
+                int other = s.opposite(end);
+                if (isMovable(other)) {
+                    wake(other);
+                }
+            }
+            return;
+        }
+        // Islands only split until they are rebuilt, so a stale island
+        // contains the current one.
+        islandRest[find(id)] = 0;
+        if (!sleeping[id]) {
+            return;
+        }
+        int i = id;
+        do {
+            if (sleeping[i] && isMovable(i)) {
+                sleeping[i] = false;
+                bodies[i].setAwake(true);
+            }
+            i = islandNext[i];
+        } while (i != id);
+    }
+
+    /**
+     * Wake every island.
+     */
+    public void wakeAll() {
+        for (int i = 0; i < bodies.length; i++) {
+            if (isMovable(i)) {
+                islandRest[find(i)] = 0;
+                if (sleeping[i]) {
+                    sleeping[i] = false;
+                    bodies[i].setAwake(true);
+                }
+            }
+        }
+    }
+
+    private boolean isMovable(int id) {
+        return bodies[id] != null && masses[id] != Double.POSITIVE_INFINITY;
+    }
+
+    private int find(int i) {
+        while (island[i] != i) {
+            island[i] = island[island[i]];
+            i = island[i];
+        }
+        return i;
+    }
+
+    private void union(int a, int b) {
+        int ra = find(a);
+        int rb = find(b);
+        if (ra != rb) {
+            island[ra] = rb;
+            islandRest[rb] = 0;
+            // Splice the two cycles into one.
+            int next = islandNext[ra];
+            islandNext[ra] = islandNext[rb];
+            islandNext[rb] = next;
+        }
+    }
+
+    /**
+     * Recompute the islands after springs, mesh members or immovable bodies
+     * were removed. Every island is awake, or was asleep as a whole.
+     */
+    private void buildIslands() {
+        int n = bodies.length;
+        for (int i = 0; i < n; i++) {
+            island[i] = i;
+            islandNext[i] = i;
+            islandRest[i] = 0;
+        }
+        SpringTable s = springs;
+        for (int i = 0; i < s.count; i++) {
+            if (isMovable(s.a[i]) && isMovable(s.b[i])) {
+                union(s.a[i], s.b[i]);
+            }
+        }
+        if (meshStrength > 0) {
+            int first = -1;
+            for (int i = 0; i < n; i++) {
+                if (meshMember[i] && isMovable(i)) {
+                    if (first < 0) {
+                        first = i;
+                    } else {
+                        union(first, i);
+                    }
+                }
+            }
+        }
+        islandsDirty = false;
+    }
+
+    /**
+     * Execute one simulated time step.
+     *
+     * @param dt the length of the time step in seconds.
+     */
+    public void step(double dt) {
+        if (islandsDirty) {
+            buildIslands();
+        }
+        // Box2D physics work by applying a fixed force on every timestep.
+        applyForces();
+        if (integrator == Integrator.EULER) {
+            integrate(dt);
+        } else if (integrator == Integrator.IMPLICIT) {
+            integrateImplicit(dt);
+        } else {
+            // 6 iterations of u' and 3 iterations of u (recommended value).
+            world.step((float) dt, ITER_VELOCITY, ITER_POS);
+        }
+        if (sleepTime < Double.POSITIVE_INFINITY) {
+            updateIslands(dt);
+        }
+    }
+
+    /**
+     * Estimate the longest time step that keeps the next step stable and
+     * moves no body too far.
+     *
+     * The step is limited so that the stiffest body (by the total strength of
+     * its springs, tethers and mesh springs over its mass) oscillates stably,
+     * friction does not overshoot, and no body moves further than the given
+     * distance at its current speed. Sleeping bodies are ignored; the forces of
+     * fields are assumed to change slowly.
+     *
+     * This is not an estimate of the integration error: the displacement limit
+     * only keeps fast bodies from skipping over the features of the layout.
+     * With the implicit integrator, only the displacement limits the step.
+     *
+     * @param maxDisplacement the furthest any body may move in one step.
+     * @return the time step in seconds, or infinity if nothing limits it.
+     */
+    public double getStableTimeStep(double maxDisplacement) {
+        int n = bodies.length;
+        if (stiffness.length < n) {
+            stiffness = new double[n];
+        } else {
+            Arrays.fill(stiffness, 0, n, 0);
+        }
+        SpringTable s = springs;
+        for (int i = 0; i < s.count; i++) {
+            stiffness[s.a[i]] += s.strength[i];
+            stiffness[s.b[i]] += s.strength[i];
+        }
+        SpringTable t = tethers;
+        for (int i = 0; i < t.count; i++) {
+            stiffness[t.a[i]] += t.strength[i];
+        }
+        int members = 0;
+        for (int i = 0; i < n; i++) {
+            if (meshMember[i] && bodies[i] != null) {
+                members++;
+            }
+        }
+        double dt = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < n; i++) {
+            if (bodies[i] == null || sleeping[i]) {
+                continue;
+            }
+            double k = stiffness[i];
+            if (meshStrength > 0 && meshMember[i]) {
+                k += meshStrength * (members - 1);
+            }
+            if (overlapStrength > 0 && shapes[i] != null) {
+                k += overlapStrength;
+            }
+            double m = masses[i] > 0 ? masses[i] : 1;
+            // Semi-implicit Euler is stable below 2 / omega; keep half of that.
+            // Backward Euler is stable for any step.
+            if (k > 0 && integrator != Integrator.IMPLICIT) {
+                dt = Math.min(dt, Math.sqrt(m / k));
+            }
+            if (friction > 0 && integrator != Integrator.IMPLICIT) {
+                dt = Math.min(dt, m / friction);
+            }
+            double speed = Math.sqrt(getVelocityX(i) * getVelocityX(i) + getVelocityY(i) * getVelocityY(i));
+            if (speed > 0) {
+                dt = Math.min(dt, maxDisplacement / speed);
+            }
+        }
+        return dt;
+    }
+
+    /**
+     * Step as fast as possible until every island has come to rest.
+     *
+     * An island is at rest once its kinetic energy has stayed below the
+     * tolerance for the sleep time (or a tenth of a second, if the engine
+     * never sleeps); it is then put to sleep and no longer evaluated. The
+     * sleep thresholds are restored afterwards. With the implicit integrator,
+     * long time steps damp the motion strongly and settle in few steps. The
+     * JBox2D world works in single precision, and may not get below very
+     * small tolerances.
+     *
+     * @param dt the length of each time step in seconds.
+     * @param tolerance the kinetic energy below which an island is at rest.
+     * @param maxSteps the most steps to take.
+     * @return true if every island came to rest.
+     */
+    public boolean settle(double dt, double tolerance, int maxSteps) {
+        double velocity = sleepVelocity, energy = sleepEnergy, time = sleepTime;
+        sleepVelocity = Double.POSITIVE_INFINITY;
+        sleepEnergy = tolerance;
+        if (sleepTime == Double.POSITIVE_INFINITY) {
+            sleepTime = SETTLE_TIME;
+        }
+        try {
+            for (int i = 0; i < maxSteps && !isAsleep(); i++) {
+                step(dt);
+            }
+        } finally {
+            sleepVelocity = velocity;
+            sleepEnergy = energy;
+            sleepTime = time;
+        }
+        return isAsleep();
+    }
+
+    /**
+     * Move every body straight to the nearest equilibrium of the forces.
+     *
+     * Instead of simulating the motion, this minimises the potential energy
+     * of the springs, tethers, mesh, overlaps and fields by L-BFGS, which
+     * needs far fewer force evaluations than stepping until the layout comes
+     * to rest, especially for stiff springs. Collisions in the JBox2D world
+     * are ignored. The bodies are left at the minimum with no velocity. A
+     * layout far from equilibrium may reach a different minimum than
+     * stepping would; settling roughly first and minimising afterwards
+     * avoids that.
+     *
+     * @param tolerance the largest force left on any body at equilibrium.
+     * @param maxIterations the most iterations to take.
+     * @return true if the forces dropped below the tolerance.
+     */
+    public boolean minimize(double tolerance, int maxIterations) {
+        if (islandsDirty) {
+            buildIslands();
+        }
+        wakeAll();
+        int n = bodies.length;
+        boolean box2d = integrator == Integrator.BOX2D;
+        if (dof.length < n) {
+            dof = new int[n];
+        }
+        dofCount = 0;
+        for (int i = 0; i < n; i++) {
+            if (bodies[i] == null) {
+                dof[i] = -1;
+                continue;
+            }
+            if (box2d) {
+                Vec2 p = bodies[i].getPosition();
+                x[i] = p.x;
+                y[i] = p.y;
+            }
+            vx[i] = 0;
+            vy[i] = 0;
+            dof[i] = isMovable(i) && bodies[i].isActive() ? dofCount++ : -1;
+        }
+        double[] point = new double[2 * dofCount];
+        for (int i = 0; i < n; i++) {
+            int k = dof[i];
+            if (k >= 0) {
+                point[2 * k] = x[i];
+                point[2 * k + 1] = y[i];
+            }
+        }
+
+        boolean converged = minimizer.minimize(point.length, point, energyGradient, tolerance, maxIterations, MAX_DISPLACEMENT);
+
+        for (int i = 0; i < n; i++) {
+            int k = dof[i];
+            if (k < 0) {
+                continue;
+            }
+            x[i] = point[2 * k];
+            y[i] = point[2 * k + 1];
+            if (box2d) {
+                bodies[i].setTransform(new Vec2((float) x[i], (float) y[i]), bodies[i].getAngle());
+                bodies[i].setLinearVelocity(new Vec2());
+            }
+        }
+        return converged;
+    }
+
+    /**
+     * Calculate the gradient of the potential energy, which is the negative
+     * of the force without friction, with the degrees of freedom at a point.
+     */
+    private void energyGradient(double[] point, double[] gradient) {
+        for (int i = 0; i < bodies.length; i++) {
+            int k = dof[i];
+            if (k >= 0) {
+                x[i] = point[2 * k];
+                y[i] = point[2 * k + 1];
+            }
+        }
+        evaluateForces(0);
+        for (int i = 0; i < bodies.length; i++) {
+            int k = dof[i];
+            if (k >= 0) {
+                gradient[2 * k] = -fx[i];
+                gradient[2 * k + 1] = -fy[i];
+            }
+        }
+    }
+
+    /**
+     * Move every awake body by semi-implicit Euler integration: the velocity
+     * is updated first, and the position follows the new velocity.
+     *
+     * @param dt the length of the time step in seconds.
+     */
+    private void integrate(double dt) {
+        for (int i = 0; i < bodies.length; i++) {
+            if (bodies[i] == null || sleeping[i] || !bodies[i].isActive()) {
+                continue;
+            }
+            // JBox2D treats a body without mass as having unit mass.
+            double inverse = masses[i] > 0 ? 1 / masses[i] : 1;
+            vx[i] += dt * fx[i] * inverse;
+            vy[i] += dt * fy[i] * inverse;
+            double dx = dt * vx[i];
+            double dy = dt * vy[i];
+            double d2 = dx * dx + dy * dy;
+            if (d2 > MAX_TRANSLATION * MAX_TRANSLATION) {
+                double ratio = MAX_TRANSLATION / Math.sqrt(d2);
+                vx[i] *= ratio;
+                vy[i] *= ratio;
+                dx *= ratio;
+                dy *= ratio;
+            }
+            x[i] += dx;
+            y[i] += dy;
+        }
+    }
+
+    /**
+     * Move every awake body by one backward Euler step.
+     *
+     * The forces of springs and tethers and the friction are linearised
+     * around the current state, and the resulting system for the change in
+     * velocity is solved by conjugate gradients:
+     *
+     * (M + dt c + dt² K) dv = dt (f - dt K v)
+     *
+     * where K is the stiffness of the springs and tethers. The mesh, fields
+     * and overlap repulsion are applied explicitly. Compressed springs are
+     * linearised as if they were at rest length, so that the system stays
+     * positive definite.
+     *
+     * @param dt the length of the time step in seconds.
+     */
+    private void integrateImplicit(double dt) {
+        int n = bodies.length;
+        if (dof.length < n) {
+            dof = new int[n];
+        }
+        dofCount = 0;
+        for (int i = 0; i < n; i++) {
+            boolean free = bodies[i] != null && !sleeping[i] && bodies[i].isActive();
+            dof[i] = free ? dofCount++ : -1;
+        }
+        if (dofCount == 0) {
+            return;
+        }
+
+        SpringTable s = springs;
+        if (springJXX.length < s.count) {
+            springJXX = new double[s.a.length];
+            springJXY = new double[s.a.length];
+            springJYY = new double[s.a.length];
+        }
+        for (int i = 0; i < s.count; i++) {
+            int a = s.a[i];
+            int b = s.b[i];
+            springJacobian(x[b] + s.bx[i] - x[a] - s.ax[i], y[b] + s.by[i] - y[a] - s.ay[i], s.length[i], s.strength[i]);
+            springJXX[i] = jacobian[0];
+            springJXY[i] = jacobian[1];
+            springJYY[i] = jacobian[2];
+        }
+        SpringTable t = tethers;
+        if (tetherJXX.length < t.count) {
+            tetherJXX = new double[t.a.length];
+            tetherJXY = new double[t.a.length];
+            tetherJYY = new double[t.a.length];
+        }
+        for (int i = 0; i < t.count; i++) {
+            int a = t.a[i];
+            springJacobian(t.bx[i] - x[a] - t.ax[i], t.by[i] - y[a] - t.ay[i], t.length[i], t.strength[i]);
+            tetherJXX[i] = jacobian[0];
+            tetherJXY[i] = jacobian[1];
+            tetherJYY[i] = jacobian[2];
+        }
+
+        int size = 2 * dofCount;
+        ImplicitSystem system = implicit;
+        system.prepare(size, dt);
+        double[] mass = system.mass;
+        double[] v = system.velocity;
+        for (int i = 0; i < n; i++) {
+            int k = dof[i];
+            if (k >= 0) {
+                // JBox2D treats a body without mass as having unit mass.
+                mass[2 * k] = mass[2 * k + 1] = masses[i] > 0 ? masses[i] : 1;
+                v[2 * k] = vx[i];
+                v[2 * k + 1] = vy[i];
+            }
+        }
+        double[] kv = system.product;
+        stiffnessProduct(v, kv);
+        double[] rhs = system.rhs;
+        for (int i = 0; i < n; i++) {
+            int k = dof[i];
+            if (k >= 0) {
+                rhs[2 * k] = dt * (fx[i] - dt * kv[2 * k]);
+                rhs[2 * k + 1] = dt * (fy[i] - dt * kv[2 * k + 1]);
+            }
+        }
+        double[] diagonal = system.diagonal;
+        stiffnessDiagonal(diagonal);
+        for (int k = 0; k < size; k++) {
+            diagonal[k] = mass[k] + dt * friction + dt * dt * diagonal[k];
+        }
+
+        if (solver == null) {
+            solver = new ConjugateGradient(maxIterations, accuracy, false);
+        }
+        RealVector dv = system.solution;
+        try {
+            solver.solveInPlace(system, system.preconditioner, system.rhsVector, dv);
+        } catch (MaxCountExceededException e) {
+            // Use the last iterate; it is the best available estimate.
+        }
+
+        for (int i = 0; i < n; i++) {
+            int k = dof[i];
+            if (k >= 0) {
+                vx[i] += dv.getEntry(2 * k);
+                vy[i] += dv.getEntry(2 * k + 1);
+                x[i] += dt * vx[i];
+                y[i] += dt * vy[i];
+            }
+        }
+    }
+
+    /**
+     * Calculate the stiffness of a spring, the negative derivative of its
+     * force on the first endpoint by the position of that endpoint. The
+     * symmetric 2x2 result is stored in jacobian as xx, xy and yy.
+     *
+     * @param dx the x component of the spring, from the first end to the
+     * second.
+     * @param dy the y component of the spring.
+     * @param length the equilibrium length.
+     * @param strength the stiffness constant.
+     */
+    private void springJacobian(double dx, double dy, double length, double strength) {
+        double distance = Math.sqrt(dx * dx + dy * dy);
+        if (distance == 0) {
+            jacobian[0] = strength;
+            jacobian[1] = 0;
+            jacobian[2] = strength;
+            return;
+        }
+        double ux = dx / distance;
+        double uy = dy / distance;
+        // The transverse stiffness is negative while compressed; leave it out.
+        double transverse = Math.max(0, 1 - length / distance);
+        jacobian[0] = strength * (ux * ux + transverse * (1 - ux * ux));
+        jacobian[1] = strength * (ux * uy - transverse * ux * uy);
+        jacobian[2] = strength * (uy * uy + transverse * (1 - uy * uy));
+    }
+
+    /**
+     * Multiply a vector of changes to the free bodies by the stiffness of the
+     * springs and tethers. Bodies that are not free do not move.
+     */
+    private void stiffnessProduct(double[] u, double[] out) {
+        SpringTable s = springs;
+        for (int i = 0; i < s.count; i++) {
+            int a = dof[s.a[i]];
+            int b = dof[s.b[i]];
+            if (a < 0 && b < 0) {
+                continue;
+            }
+            double dx = (a < 0 ? 0 : u[2 * a]) - (b < 0 ? 0 : u[2 * b]);
+            double dy = (a < 0 ? 0 : u[2 * a + 1]) - (b < 0 ? 0 : u[2 * b + 1]);
+            double gx = springJXX[i] * dx + springJXY[i] * dy;
+            double gy = springJXY[i] * dx + springJYY[i] * dy;
+            if (a >= 0) {
+                out[2 * a] += gx;
+                out[2 * a + 1] += gy;
+            }
+            if (b >= 0) {
+                out[2 * b] -= gx;
+                out[2 * b + 1] -= gy;
+            }
+        }
+        SpringTable t = tethers;
+        for (int i = 0; i < t.count; i++) {
+            int a = dof[t.a[i]];
+            if (a >= 0) {
+                out[2 * a] += tetherJXX[i] * u[2 * a] + tetherJXY[i] * u[2 * a + 1];
+                out[2 * a + 1] += tetherJXY[i] * u[2 * a] + tetherJYY[i] * u[2 * a + 1];
+            }
+        }
+    }
+
+    private void stiffnessDiagonal(double[] out) {
+        SpringTable s = springs;
+        for (int i = 0; i < s.count; i++) {
+            int a = dof[s.a[i]];
+            int b = dof[s.b[i]];
+            if (a >= 0) {
+                out[2 * a] += springJXX[i];
+                out[2 * a + 1] += springJYY[i];
+            }
+            if (b >= 0) {
+                out[2 * b] += springJXX[i];
+                out[2 * b + 1] += springJYY[i];
+            }
+        }
+        SpringTable t = tethers;
+        for (int i = 0; i < t.count; i++) {
+            int a = dof[t.a[i]];
+            if (a >= 0) {
+                out[2 * a] += tetherJXX[i];
+                out[2 * a + 1] += tetherJYY[i];
+            }
+        }
+    }
+
+    /**
+     * Set when the implicit integrator stops refining its solution.
+     *
+     * @param maxIterations the most conjugate gradient iterations per step.
+     * @param accuracy the residual, relative to the right-hand side, at which
+     * the solution is accepted.
+     */
+    public void setImplicitSolver(int maxIterations, double accuracy) {
+        this.maxIterations = maxIterations;
+        this.accuracy = accuracy;
+        solver = null;
+    }
+
+    /**
+     * Put every island to sleep that has been at rest for long enough.
+     *
+     * @param dt the length of the time step in seconds.
+     */
+    private void updateIslands(double dt) {
+        int n = bodies.length;
+        for (int i = 0; i < n; i++) {
+            if (!sleeping[i]) {
+                int root = find(i);
+                islandSpeed[root] = 0;
+                islandEnergy[root] = 0;
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            if (!sleeping[i] && bodies[i] != null) {
+                int root = find(i);
+                double v2 = getVelocityX(i) * getVelocityX(i) + getVelocityY(i) * getVelocityY(i);
+                islandSpeed[root] = Math.max(islandSpeed[root], Math.sqrt(v2));
+                islandEnergy[root] += 0.5 * masses[i] * v2;
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            // The root of an awake island is awake.
+            if (!sleeping[i] && bodies[i] != null && island[i] == i) {
+                if (islandSpeed[i] <= sleepVelocity && islandEnergy[i] <= sleepEnergy) {
+                    islandRest[i] += dt;
+                } else {
+                    islandRest[i] = 0;
+                }
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            if (!sleeping[i] && bodies[i] != null && islandRest[find(i)] >= sleepTime) {
+                sleeping[i] = true;
+                bodies[i].setAwake(false);
+            }
+        }
+    }
+
+    private void applyForces() {
+        int n = bodies.length;
+        boolean box2d = integrator == Integrator.BOX2D;
+        for (int i = 0; i < n; i++) {
+            if (bodies[i] == null) {
+                continue;
+            }
+            if (box2d) {
+                Vec2 p = bodies[i].getPosition();
+                Vec2 v = bodies[i].getLinearVelocity();
+                x[i] = p.x;
+                y[i] = p.y;
+                vx[i] = v.x;
+                vy[i] = v.y;
+            }
+        }
+
+        evaluateForces(friction);
+
+        if (!box2d) {
+            return;
+        }
+        for (int i = 0; i < n; i++) {
+            // Leave sleeping bodies untouched, as any force would wake them.
+            if (bodies[i] == null || sleeping[i]) {
+                continue;
+            }
+            force.set((float) fx[i], (float) fy[i]);
+            bodies[i].applyForceToCenter(force);
+        }
+    }
+
+    /**
+     * Calculate the total force on every awake body at the positions and
+     * velocities in x, y, vx and vy.
+     *
+     * @param friction the friction to apply.
+     */
+    private void evaluateForces(double friction) {
+        int n = bodies.length;
+        Arrays.fill(fx, 0, n, 0);
+        Arrays.fill(fy, 0, n, 0);
+
+        // Each spring is evaluated once, and acts on both endpoints.
+        SpringTable s = springs;
+        if (springFX.length < s.count) {
+            springFX = new double[s.a.length];
+            springFY = new double[s.a.length];
+        }
+        forEach(s.count, springChunk);
+        int springCount = 0;
+        for (int i = 0; i < s.count; i++) {
+            int a = s.a[i];
+            int b = s.b[i];
+            if (sleeping[a] && sleeping[b]) {
+                continue;
+            }
+            springCount++;
+            fx[a] += springFX[i];
+            fy[a] += springFY[i];
+            fx[b] -= springFX[i];
+            fy[b] -= springFY[i];
+        }
+
+        SpringTable t = tethers;
+        if (tetherFX.length < t.count) {
+            tetherFX = new double[t.a.length];
+            tetherFY = new double[t.a.length];
+        }
+        forEach(t.count, tetherChunk);
+        int tetherCount = 0;
+        for (int i = 0; i < t.count; i++) {
+            int a = t.a[i];
+            if (sleeping[a]) {
+                continue;
+            }
+            tetherCount++;
+            fx[a] += tetherFX[i];
+            fy[a] += tetherFY[i];
+        }
+
+        if (meshStrength > 0) {
+            applyMesh();
+        }
+
+        if (overlapStrength > 0) {
+            applyOverlaps();
+        }
+
+        evaluatedFriction = friction;
+        forEach(n, bodyChunk);
+
+        if (counting) {
+            forceEvaluations++;
+            springEvaluations += springCount;
+            tetherEvaluations += tetherCount;
+            if (fieldArray.length > 0) {
+                int awake = 0;
+                for (int i = 0; i < n; i++) {
+                    if (bodies[i] != null && !sleeping[i]) {
+                        awake++;
+                    }
+                }
+                fieldEvaluations += (long) awake * fieldArray.length;
+            }
+        }
+    }
+
+    private void evaluateSprings(int from, int to, int chunk) {
+        SpringTable s = springs;
+        double[] out = scratch[chunk];
+        for (int i = from; i < to; i++) {
+            int a = s.a[i];
+            int b = s.b[i];
+            if (sleeping[a] && sleeping[b]) {
+                continue;
+            }
+            evaluateSpring(x[a] + s.ax[i], y[a] + s.ay[i], x[b] + s.bx[i], y[b] + s.by[i], s.length[i], s.strength[i],
+                    key(a, b), out);
+            springFX[i] = out[0];
+            springFY[i] = out[1];
+        }
+    }
+
+    private void evaluateTethers(int from, int to, int chunk) {
+        SpringTable t = tethers;
+        double[] out = scratch[chunk];
+        for (int i = from; i < to; i++) {
+            int a = t.a[i];
+            if (sleeping[a]) {
+                continue;
+            }
+            evaluateSpring(x[a] + t.ax[i], y[a] + t.ay[i], t.bx[i], t.by[i], t.length[i], t.strength[i],
+                    key(a, -1), out);
+            tetherFX[i] = out[0];
+            tetherFY[i] = out[1];
+        }
+    }
+
+    /**
+     * Add friction and the forces of all fields, which only depend on the
+     * body itself.
+     */
+    private void evaluateBodies(int from, int to, int chunk) {
+        double[] out = scratch[chunk];
+        for (int i = from; i < to; i++) {
+            if (bodies[i] == null || sleeping[i]) {
+                continue;
+            }
+            fx[i] -= evaluatedFriction * vx[i];
+            fy[i] -= evaluatedFriction * vy[i];
+            for (Field field : fieldArray) {
+                field.force(x[i], y[i], out);
+                fx[i] += out[0];
+                fy[i] += out[1];
+            }
+        }
+    }
+
+    private void evaluateMesh(int from, int to, int chunk) {
+        double[] out = scratch[chunk];
+        for (int i = from; i < to; i++) {
+            tree.force(i, meshStrength, meshTheta, stacks[chunk], out);
+            meshFX[i] = out[0];
+            meshFY[i] = out[1];
+        }
+    }
+
+    private void applyMesh() {
+        if (meshCount < 0) {
+            meshCount = 0;
+            for (int i = 0; i < bodies.length; i++) {
+                if (meshMember[i]) {
+                    meshCount++;
+                }
+            }
+            meshNode = new int[meshCount];
+            meshX = new double[meshCount];
+            meshY = new double[meshCount];
+            meshTX = new double[meshCount];
+            meshTY = new double[meshCount];
+            meshFX = new double[meshCount];
+            meshFY = new double[meshCount];
+            int k = 0;
+            for (int i = 0; i < bodies.length; i++) {
+                if (meshMember[i]) {
+                    meshNode[k++] = i;
+                }
+            }
+        }
+        // The movable members form a single island.
+        boolean awake = false;
+        for (int i = 0; i < meshCount && !awake; i++) {
+            awake = !sleeping[meshNode[i]];
+        }
+        if (!awake) {
+            return;
+        }
+        for (int i = 0; i < meshCount; i++) {
+            meshX[i] = x[meshNode[i]];
+            meshY[i] = y[meshNode[i]];
+            meshTX[i] = meshTargetX[meshNode[i]];
+            meshTY[i] = meshTargetY[meshNode[i]];
+        }
+        tree.build(meshCount, meshX, meshY, meshTX, meshTY);
+        forEach(meshCount, meshChunk);
+        for (int i = 0; i < meshCount; i++) {
+            fx[meshNode[i]] += meshFX[i];
+            fy[meshNode[i]] += meshFY[i];
+        }
+    }
+
+    private void applyOverlaps() {
+        int k = 0;
+        double size = 0;
+        for (int i = 0; i < bodies.length; i++) {
+            if (bodies[i] == null || shapes[i] == null) {
+                continue;
+            }
+            shapes[i].computeAABB(extent, identity, 0);
+            Vec2 lower = extent.lowerBound, upper = extent.upperBound;
+            if (upper.x <= lower.x || upper.y <= lower.y) {
+                continue;
+            }
+            if (k == boxBody.length) {
+                int capacity = Math.max(16, 2 * k);
+                boxBody = Arrays.copyOf(boxBody, capacity);
+                boxRound = Arrays.copyOf(boxRound, capacity);
+                boxMinX = Arrays.copyOf(boxMinX, capacity);
+                boxMinY = Arrays.copyOf(boxMinY, capacity);
+                boxMaxX = Arrays.copyOf(boxMaxX, capacity);
+                boxMaxY = Arrays.copyOf(boxMaxY, capacity);
+            }
+            boxBody[k] = i;
+            boxRound[k] = shapes[i].getType() == ShapeType.CIRCLE;
+            boxMinX[k] = x[i] + lower.x;
+            boxMinY[k] = y[i] + lower.y;
+            boxMaxX[k] = x[i] + upper.x;
+            boxMaxY[k] = y[i] + upper.y;
+            size += Math.max(upper.x - lower.x, upper.y - lower.y);
+            k++;
+        }
+        if (k < 2) {
+            return;
+        }
+        grid.build(k, boxMinX, boxMinY, boxMaxX, boxMaxY, size / k);
+        if (overlapFX.length < grid.pairCount) {
+            overlapFX = new double[grid.pairA.length];
+            overlapFY = new double[grid.pairA.length];
+        }
+        forEach(grid.pairCount, overlapChunk);
+        for (int p = 0; p < grid.pairCount; p++) {
+            if (overlapFX[p] == 0 && overlapFY[p] == 0) {
+                continue;
+            }
+            int a = boxBody[grid.pairA[p]];
+            int b = boxBody[grid.pairB[p]];
+            // A body that runs into a sleeping island wakes it.
+            if (sleeping[a] && isMovable(a)) {
+                wake(a);
+            }
+            if (sleeping[b] && isMovable(b)) {
+                wake(b);
+            }
+            fx[a] += overlapFX[p];
+            fy[a] += overlapFY[p];
+            fx[b] -= overlapFX[p];
+            fy[b] -= overlapFY[p];
+        }
+    }
+
+    /**
+     * Calculate the force of each overlapping pair on its first body.
+     */
+    private void evaluateOverlaps(int from, int to, int chunk) {
+        for (int p = from; p < to; p++) {
+            int i = grid.pairA[p];
+            int j = grid.pairB[p];
+            overlapFX[p] = 0;
+            overlapFY[p] = 0;
+            if (sleeping[boxBody[i]] && sleeping[boxBody[j]]) {
+                continue;
+            }
+            double dx = (boxMinX[j] + boxMaxX[j] - boxMinX[i] - boxMaxX[i]) / 2;
+            double dy = (boxMinY[j] + boxMaxY[j] - boxMinY[i] - boxMaxY[i]) / 2;
+            if (boxRound[i] && boxRound[j]) {
+                double radii = (boxMaxX[i] - boxMinX[i] + boxMaxX[j] - boxMinX[j]) / 2;
+                double distance = Math.sqrt(dx * dx + dy * dy);
+                if (distance >= radii) {
+                    continue;
+                }
+                double f = overlapStrength * (radii - distance);
+                if (distance > 0) {
+                    overlapFX[p] = -dx * f / distance;
+                    overlapFY[p] = -dy * f / distance;
+                } else {
+                    overlapFX[p] = -f;
+                }
+                continue;
+            }
+            double ox = Math.min(boxMaxX[i], boxMaxX[j]) - Math.max(boxMinX[i], boxMinX[j]);
+            double oy = Math.min(boxMaxY[i], boxMaxY[j]) - Math.max(boxMinY[i], boxMinY[j]);
+            if (ox <= 0 || oy <= 0) {
+                continue;
+            }
+            // Separate the boxes along the axis of least overlap.
+            if (ox < oy) {
+                overlapFX[p] = dx >= 0 ? -overlapStrength * ox : overlapStrength * ox;
+            } else {
+                overlapFY[p] = dy >= 0 ? -overlapStrength * oy : overlapStrength * oy;
+            }
+        }
+    }
+
+    /**
+     * Run a task over the range [0, count), split into chunks of a fixed size.
+     *
+     * The chunks run in parallel if a pool is set and the engine has enough
+     * bodies, and one after the other otherwise. Every chunk has its own
+     * scratch space, and each element is evaluated the same way no matter how
+     * the chunks are scheduled.
+     */
+    private void forEach(int count, Chunk task) {
+        int chunks = (count + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        if (pool == null || chunks < 2 || bodyCount < parallelThreshold) {
+            task.run(0, count, 0);
+            return;
+        }
+        if (scratch.length < chunks) {
+            int old = scratch.length;
+            scratch = Arrays.copyOf(scratch, chunks);
+            stacks = Arrays.copyOf(stacks, chunks);
+            for (int c = old; c < chunks; c++) {
+                scratch[c] = new double[2];
+                stacks[c] = new int[BarnesHutTree.STACK_SIZE];
+            }
+        }
+        pool.invoke(new ChunkTask(task, count, 0, chunks));
+    }
+
+    /**
+     * Calculate the force of a single spring on its first endpoint.
+     *
+     * This is equivalent to Spring.getForce(Point2D, Point2D), except for the
+     * direction in which coinciding ends are pushed apart.
+     *
+     * @param ax the x coordinate of the first end of the spring.
+     * @param ay the y coordinate of the first end of the spring.
+     * @param bx the x coordinate of the second end of the spring.
+     * @param by the y coordinate of the second end of the spring.
+     * @param length the equilibrium length.
+     * @param strength the stiffness constant.
+     * @param key chooses the direction if the ends coincide (see key).
+     * @param out an array that will receive the x and y components of the
+     * force.
+     */
+    private static void evaluateSpring(double ax, double ay, double bx, double by, double length, double strength,
+            long key, double[] out) {
+        double dx = bx - ax;
+        double dy = by - ay;
+        double distance = Math.sqrt(dx * dx + dy * dy);
+        if (distance > 0) {
+            double f = (distance - length) * strength / distance;
+            out[0] = dx * f;
+            out[1] = dy * f;
+        } else {
+            // Apply force in an arbitrary but reproducible direction:
+            double f = -length * strength;
+            double angle = angle(key);
+            out[0] = Math.sin(angle) * f;
+            out[1] = Math.cos(angle) * f;
+        }
+    }
+
+    /**
+     * Identify a spring or tether for choosing its direction.
+     *
+     * @param a the first body
+     * @param b the second body, or -1 for a tether.
+     * @return a key that depends on the seed and both bodies.
+     */
+    private long key(int a, int b) {
+        return seed + a * 0x9E3779B97F4A7C15L + b * 0xC2B2AE3D27D4EB4FL;
+    }
+
+    /**
+     * Turn a key into an angle, scrambling its bits so that similar keys give
+     * unrelated angles (by the finalizer of SplitMix64). This needs no shared
+     * state, unlike Math.random, so it is safe on any thread.
+     *
+     * @param key the key
+     * @return an angle between 0 and 2 pi.
+     */
+    private static double angle(long key) {
+        key = (key ^ (key >>> 30)) * 0xBF58476D1CE4E5B9L;
+        key = (key ^ (key >>> 27)) * 0x94D049BB133111EBL;
+        key ^= key >>> 31;
+        return (key >>> 11) * 0x1.0p-53 * 2 * Math.PI;
+    }
+
+    /**
+     * The matrix M + dt c + dt² K of a backward Euler step, applied without
+     * storing it, together with the scratch space of the step.
+     *
+     * The vectors of the solver must match the size of the system, so the
+     * buffers are only reallocated when the number of free bodies changes.
+     * Each product is written into the same vector, which the solver only
+     * reads until it asks for the next one.
+     */
+    private final class ImplicitSystem extends RealLinearOperator {
+
+        private double dt;
+        private double[] mass = new double[0], velocity, product, rhs, diagonal, scaled;
+        private ArrayRealVector rhsVector, solution, productVector, scaledVector;
+
+        /**
+         * The inverse of the diagonal of the system (Jacobi preconditioner).
+         */
+        private final RealLinearOperator preconditioner = new RealLinearOperator() {
+            @Override
+            public int getRowDimension() {
+                return mass.length;
+            }
+
+            @Override
+            public int getColumnDimension() {
+                return mass.length;
+            }
+
+            @Override
+            public RealVector operate(RealVector u) {
+                double[] in = data(u);
+                for (int k = 0; k < in.length; k++) {
+                    scaled[k] = in[k] / diagonal[k];
+                }
+                return scaledVector;
+            }
+        };
+
+        /**
+         * Clear the buffers for the next step.
+         *
+         * @param size the number of free coordinates.
+         * @param dt the length of the time step in seconds.
+         */
+        void prepare(int size, double dt) {
+            this.dt = dt;
+            if (mass.length != size) {
+                mass = new double[size];
+                velocity = new double[size];
+                product = new double[size];
+                rhs = new double[size];
+                diagonal = new double[size];
+                scaled = new double[size];
+                rhsVector = new ArrayRealVector(rhs, false);
+                solution = new ArrayRealVector(size);
+                productVector = new ArrayRealVector(product, false);
+                scaledVector = new ArrayRealVector(scaled, false);
+            } else {
+                Arrays.fill(product, 0);
+                Arrays.fill(diagonal, 0);
+                solution.set(0);
+            }
+        }
+
+        @Override
+        public int getRowDimension() {
+            return mass.length;
+        }
+
+        @Override
+        public int getColumnDimension() {
+            return mass.length;
+        }
+
+        @Override
+        public RealVector operate(RealVector u) {
+            double[] in = data(u);
+            Arrays.fill(product, 0);
+            stiffnessProduct(in, product);
+            for (int k = 0; k < product.length; k++) {
+                product[k] = (mass[k] + dt * friction) * in[k] + dt * dt * product[k];
+            }
+            return productVector;
+        }
+
+        private double[] data(RealVector u) {
+            return u instanceof ArrayRealVector ? ((ArrayRealVector) u).getDataRef() : u.toArray();
+        }
+    }
+
+    /**
+     * A task over a range of springs, tethers, mesh members or bodies.
+     */
+    private interface Chunk {
+
+        /**
+         * @param from the first element
+         * @param to the element after the last
+         * @param chunk the index of the chunk, which selects its scratch space.
+         */
+        void run(int from, int to, int chunk);
+    }
+
+    /**
+     * Runs a range of chunks, splitting it in half until one chunk is left.
+     */
+    private static final class ChunkTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Chunk task;
+        private final int count, from, to;
+
+        ChunkTask(Chunk task, int count, int from, int to) {
+            this.task = task;
+            this.count = count;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                task.run(from * CHUNK_SIZE, Math.min(count, (from + 1) * CHUNK_SIZE), from);
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new ChunkTask(task, count, from, middle), new ChunkTask(task, count, middle, to));
+            }
+        }
+    }
+}
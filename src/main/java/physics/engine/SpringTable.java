@@ -0,0 +1,202 @@
+package physics.engine;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+/**
+ * The parameters of a set of springs, packed into primitive arrays.
+ *
+ * The springs occupy the first count slots of each array. Every spring also
+ * has an identifier that remains fixed until it is removed; removing a spring
+ * moves the last one into its slot.
+ *
+ * The two ends of each spring (2 * id for the first body, 2 * id + 1 for the
+ * second) are linked into a list per body, so the springs of a body can be
+ * found without scanning the table.
+ *
+ * @author Christoph Burschka &lt;christoph@burschka.de&gt;
+ */
+final class SpringTable {
+
+    int count;
+    int[] a = new int[0], b = new int[0];
+    double[] length = new double[0], strength = new double[0];
+    double[] ax = new double[0], ay = new double[0], bx = new double[0], by = new double[0];
+
+    private int[] ids = new int[0];
+    private int[] slots = new int[0];
+    private final Deque<Integer> freeIds = new ArrayDeque<>();
+    private int[] firstEnd = new int[0];
+    private int[] nextEnd = new int[0], previousEnd = new int[0];
+
+    /**
+     * Add a spring.
+     *
+     * @return the identifier of the new spring.
+     */
+    int add(int a, int b, double length, double strength, double ax, double ay, double bx, double by) {
+        if (count == ids.length) {
+            int capacity = Math.max(16, 2 * count);
+            this.a = Arrays.copyOf(this.a, capacity);
+            this.b = Arrays.copyOf(this.b, capacity);
+            this.length = Arrays.copyOf(this.length, capacity);
+            this.strength = Arrays.copyOf(this.strength, capacity);
+            this.ax = Arrays.copyOf(this.ax, capacity);
+            this.ay = Arrays.copyOf(this.ay, capacity);
+            this.bx = Arrays.copyOf(this.bx, capacity);
+            this.by = Arrays.copyOf(this.by, capacity);
+            ids = Arrays.copyOf(ids, capacity);
+            int old = slots.length;
+            slots = Arrays.copyOf(slots, capacity);
+            Arrays.fill(slots, old, capacity, -1);
+            nextEnd = Arrays.copyOf(nextEnd, 2 * capacity);
+            previousEnd = Arrays.copyOf(previousEnd, 2 * capacity);
+        }
+        Integer free = freeIds.poll();
+        int id = free == null ? count : free;
+        int slot = count++;
+        ids[slot] = id;
+        slots[id] = slot;
+        this.a[slot] = a;
+        this.b[slot] = b;
+        link(a, 2 * id);
+        link(b, 2 * id + 1);
+        set(id, length, strength, ax, ay, bx, by);
+        return id;
+    }
+
+    private void link(int body, int end) {
+        if (body < 0) {
+            return;
+        }
+        if (body >= firstEnd.length) {
+            int old = firstEnd.length;
+            firstEnd = Arrays.copyOf(firstEnd, Math.max(16, Math.max(body + 1, 2 * old)));
+            Arrays.fill(firstEnd, old, firstEnd.length, -1);
+        }
+        int head = firstEnd[body];
+        nextEnd[end] = head;
+        previousEnd[end] = -1;
+        if (head >= 0) {
+            previousEnd[head] = end;
+        }
+        firstEnd[body] = end;
+    }
+
+    private void unlink(int body, int end) {
+        if (body < 0) {
+            return;
+        }
+        if (previousEnd[end] >= 0) {
+            nextEnd[previousEnd[end]] = nextEnd[end];
+        } else {
+            firstEnd[body] = nextEnd[end];
+        }
+        if (nextEnd[end] >= 0) {
+            previousEnd[nextEnd[end]] = previousEnd[end];
+        }
+    }
+
+    /**
+     * Get the first spring end attached to a body.
+     *
+     * @param body the body identifier
+     * @return the end, or -1 if the body has no springs.
+     */
+    int firstEnd(int body) {
+        return body < firstEnd.length ? firstEnd[body] : -1;
+    }
+
+    /**
+     * Get the next spring end attached to the same body.
+     *
+     * @param end a spring end
+     * @return the end, or -1 if there are no more.
+     */
+    int nextEnd(int end) {
+        return nextEnd[end];
+    }
+
+    /**
+     * Get the body at the opposite end of a spring.
+     *
+     * @param end a spring end
+     * @return the body identifier, or -1 for the fixed point of a tether.
+     */
+    int opposite(int end) {
+        int slot = slots[end >> 1];
+        return (end & 1) == 0 ? b[slot] : a[slot];
+    }
+
+    /**
+     * Change the parameters of a spring.
+     *
+     * @return true if any parameter changed.
+     */
+    boolean set(int id, double length, double strength, double ax, double ay, double bx, double by) {
+        int slot = slots[id];
+        if (this.length[slot] == length && this.strength[slot] == strength && this.ax[slot] == ax
+                && this.ay[slot] == ay && this.bx[slot] == bx && this.by[slot] == by) {
+            return false;
+        }
+        this.length[slot] = length;
+        this.strength[slot] = strength;
+        this.ax[slot] = ax;
+        this.ay[slot] = ay;
+        this.bx[slot] = bx;
+        this.by[slot] = by;
+        return true;
+    }
+
+    int getA(int id) {
+        return a[slots[id]];
+    }
+
+    int getB(int id) {
+        return b[slots[id]];
+    }
+
+    boolean contains(int id) {
+        return id >= 0 && id < slots.length && slots[id] >= 0;
+    }
+
+    void remove(int id) {
+        int slot = slots[id];
+        unlink(a[slot], 2 * id);
+        unlink(b[slot], 2 * id + 1);
+        int last = --count;
+        if (slot != last) {
+            a[slot] = a[last];
+            b[slot] = b[last];
+            length[slot] = length[last];
+            strength[slot] = strength[last];
+            ax[slot] = ax[last];
+            ay[slot] = ay[last];
+            bx[slot] = bx[last];
+            by[slot] = by[last];
+            ids[slot] = ids[last];
+            slots[ids[slot]] = slot;
+        }
+        slots[id] = -1;
+        freeIds.push(id);
+    }
+
+    /**
+     * Remove every spring attached to a body.
+     *
+     * @param body the body identifier.
+     */
+    void removeAll(int body) {
+        for (int end = firstEnd(body); end >= 0; end = firstEnd(body)) {
+            remove(end >> 1);
+        }
+    }
+
+    void clear() {
+        count = 0;
+        Arrays.fill(slots, -1);
+        Arrays.fill(firstEnd, -1);
+        freeIds.clear();
+    }
+}
@@ -0,0 +1,91 @@
+package layout;
+
+import java.util.Set;
+import javafx.geometry.Point2D;
+import javafx.scene.Node;
+import javafx.scene.layout.Pane;
+import javafx.scene.shape.Rectangle;
+import org.junit.Before;
+import org.junit.Test;
+import physics.Spring;
+import physics.Tether;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests that the springs between two nodes are seen from either node, as
+ * views over the stored connection, and that only actual changes count as
+ * modifications.
+ *
+ * @author Christoph Burschka &lt;christoph@burschka.de&gt;
+ */
+public class PhysLayoutTest {
+
+    private PhysLayout layout;
+    private Node a, b;
+
+    @Before
+    public void build() {
+        Pane root = new Pane();
+        a = new Rectangle(10, 10);
+        b = new Rectangle(10, 10);
+        root.getChildren().addAll(a, b);
+        layout = new PhysLayout(root);
+    }
+
+    private static Spring only(Set<Spring> springs) {
+        assertEquals(1, springs.size());
+        return springs.iterator().next();
+    }
+
+    @Test
+    public void springsAreOrientedFromFirstNode() {
+        Spring s = new Spring(50, 10, new Point2D(1, 2), new Point2D(3, 4));
+        layout.addConnection(b, a, s);
+
+        assertSame(s, only(layout.getConnections(b, a)));
+        Spring reversed = only(layout.getConnections(a, b));
+        assertEquals(new Point2D(3, 4), reversed.getAnchorA());
+        assertEquals(new Point2D(1, 2), reversed.getAnchorB());
+    }
+
+    @Test
+    public void springsAreViewsOverConnection() {
+        Set<Spring> ab = layout.getConnections(a, b);
+        assertNull(ab);
+        layout.addConnection(a, b, new Spring(50, 10));
+        ab = layout.getConnections(a, b);
+        Set<Spring> ba = layout.getConnections(b, a);
+
+        layout.addConnection(b, a, new Spring(30, 10));
+        assertEquals(2, ab.size());
+        assertEquals(2, ba.size());
+        assertTrue(layout.getNeighbors(a).contains(b));
+        assertTrue(layout.getNeighbors(b).contains(a));
+    }
+
+    @Test
+    public void removingUnknownItemsDoesNotModify() {
+        Spring s = new Spring(50, 10);
+        Tether t = new Tether(0, 10, Point2D.ZERO);
+        layout.addConnection(a, b, s);
+        layout.addTether(a, t);
+        long revision = layout.revisionProperty().get();
+
+        layout.removeConnection(a, b, new Spring(50, 10));
+        layout.removeTether(a, new Tether(0, 10, Point2D.ZERO));
+        assertEquals(revision, layout.revisionProperty().get());
+
+        layout.removeConnection(b, a, s);
+        layout.removeTether(a, t);
+        assertTrue(layout.revisionProperty().get() > revision);
+        assertNull(layout.getConnection(a, b));
+        assertNull(layout.getTethers(a));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void springsCannotBeAddedThroughView() {
+        layout.addConnection(a, b, new Spring(50, 10));
+        layout.getConnections(b, a).add(new Spring(30, 10));
+    }
+}
@@ -0,0 +1,143 @@
+package layout.panes;
+
+import java.util.Set;
+import javafx.geometry.Point2D;
+import javafx.scene.Node;
+import javafx.scene.layout.Pane;
+import javafx.scene.shape.Rectangle;
+import layout.Connection;
+import layout.PhysLayout;
+import org.junit.Before;
+import org.junit.Test;
+import physics.Spring;
+import physics.Tether;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests that a layout pass keeps, updates and removes exactly the items that
+ * differ from the previous pass.
+ *
+ * @author Christoph Burschka &lt;christoph@burschka.de&gt;
+ */
+public class ConnectorTest {
+
+    private PhysLayout layout;
+    private Connector connector;
+    private Node a, b, c;
+
+    @Before
+    public void build() {
+        Pane root = new Pane();
+        a = new Rectangle(10, 10);
+        b = new Rectangle(10, 10);
+        c = new Rectangle(10, 10);
+        root.getChildren().addAll(a, b, c);
+        layout = new PhysLayout(root);
+        connector = new Connector(layout);
+
+        connector.begin();
+        connector.connect(a, b, 50, 10);
+        connector.connect(b, c, 50, 10);
+        connector.tether(a, 0, 10, new Point2D(1, 2));
+        connector.target(c, new Point2D(3, 4));
+        connector.mass(b, 2);
+        connector.end();
+    }
+
+    private static Spring spring(Connection connection) {
+        Set<Spring> springs = connection.getSprings();
+        assertEquals(1, springs.size());
+        return springs.iterator().next();
+    }
+
+    private static Tether tether(Set<Tether> tethers) {
+        assertEquals(1, tethers.size());
+        return tethers.iterator().next();
+    }
+
+    @Test
+    public void firstPassAddsEverything() {
+        assertEquals(3, layout.getNodes().size());
+        assertEquals(50, spring(layout.getConnection(a, b)).getLength(), 0);
+        assertEquals(50, spring(layout.getConnection(b, c)).getLength(), 0);
+        assertEquals(new Point2D(1, 2), tether(layout.getTethers(a)).getFixture());
+        assertEquals(new Point2D(3, 4), layout.getMeshTarget(layout.getIndex(c)));
+        assertEquals(2, layout.getMass(b), 0);
+    }
+
+    @Test
+    public void unchangedPassKeepsEverything() {
+        Spring ab = spring(layout.getConnection(a, b));
+        Tether t = tether(layout.getTethers(a));
+        long revision = layout.getRevision(), parameters = layout.getParameterRevision();
+
+        connector.begin();
+        // The order of the nodes does not matter.
+        connector.connect(b, a, 50, 10);
+        connector.connect(b, c, 50, 10);
+        connector.tether(a, 0, 10, new Point2D(1, 2));
+        connector.target(c, new Point2D(3, 4));
+        connector.mass(b, 2);
+        connector.end();
+
+        assertEquals(revision, layout.getRevision());
+        assertEquals(parameters, layout.getParameterRevision());
+        assertSame(ab, spring(layout.getConnection(a, b)));
+        assertSame(t, tether(layout.getTethers(a)));
+    }
+
+    @Test
+    public void changedPassUpdatesInPlace() {
+        Spring ab = spring(layout.getConnection(a, b));
+        Tether t = tether(layout.getTethers(a));
+        long revision = layout.getRevision(), parameters = layout.getParameterRevision();
+
+        connector.begin();
+        connector.connect(a, b, 60, 10);
+        connector.connect(b, c, 50, 10);
+        connector.tether(a, 0, 20, new Point2D(5, 6));
+        connector.target(c, new Point2D(3, 4));
+        connector.mass(b, 2);
+        connector.end();
+
+        assertEquals(revision, layout.getRevision());
+        assertTrue(layout.getParameterRevision() > parameters);
+        assertSame(ab, spring(layout.getConnection(a, b)));
+        assertEquals(60, ab.getLength(), 0);
+        assertSame(t, tether(layout.getTethers(a)));
+        assertEquals(20, t.getStrength(), 0);
+        assertEquals(new Point2D(5, 6), t.getFixture());
+    }
+
+    @Test
+    public void undeclaredItemsAreRemoved() {
+        long revision = layout.getRevision();
+
+        connector.begin();
+        connector.connect(a, b, 50, 10);
+        connector.mass(c, 1);
+        connector.end();
+
+        assertTrue(layout.getRevision() > revision);
+        assertEquals(3, layout.getNodes().size());
+        assertNotNull(layout.getConnection(a, b));
+        assertNull(layout.getConnection(b, c));
+        Set<Tether> tethers = layout.getTethers(a);
+        assertTrue(tethers == null || tethers.isEmpty());
+        assertNull(layout.getMeshTarget(layout.getIndex(c)));
+        assertEquals(1, layout.getMass(b), 0);
+    }
+
+    @Test
+    public void unmentionedNodesAreRemoved() {
+        connector.begin();
+        connector.connect(a, b, 50, 10);
+        connector.end();
+
+        assertEquals(2, layout.getNodes().size());
+        assertFalse(layout.getNodes().contains(c));
+        assertNull(layout.getConnection(b, c));
+        assertNotNull(layout.getConnection(a, b));
+    }
+}
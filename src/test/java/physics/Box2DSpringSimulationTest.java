@@ -0,0 +1,180 @@
+package physics;
+
+import java.util.Arrays;
+import java.util.Random;
+import javafx.scene.Node;
+import javafx.scene.layout.Pane;
+import javafx.scene.shape.Rectangle;
+import layout.PhysLayout;
+import org.junit.Test;
+import physics.engine.Integrator;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests that a simulation on the simulated clock does not depend on the time
+ * at which its frames are shown, or on anything else that may change between
+ * runs.
+ *
+ * The frames are driven the way a SimulationScheduler drives them, so the
+ * JavaFX toolkit does not have to run.
+ *
+ * @author Christoph Burschka &lt;christoph@burschka.de&gt;
+ */
+public class Box2DSpringSimulationTest {
+
+    private static final int NODES = 6;
+    private static final int FRAMES = 60;
+
+    /**
+     * The connection identifiers and node positions at the end of
+     * removingAndAddingSpringsMatchesRecordedLayout, as they were recorded.
+     * The simulation uses the Euler integrator and no coinciding ends, so it
+     * only involves exactly rounded arithmetic.
+     */
+    private static final double[] RECORDED_POSITIONS = {
+        0.0, 0.0,
+        30.698640880957907, -13.619210645174931,
+        37.94670168483137, 31.88742094076322,
+        31.28445928098584, 15.504780283933776,
+        52.970143678353004, 1.0314863092565147,
+        65.91863691315206, 24.990192263199177,
+        35.28281286568215, 47.29228064079385,
+        78.34999915141657, 74.005167897364
+    };
+    private static final int[] RECORDED_IDS = {8, 11, 10, 3, 2};
+
+    private static Box2DSpringSimulation simulation(PhysLayout layout, long seed, Integrator integrator) {
+        Box2DSpringSimulation simulation = new Box2DSpringSimulation(layout);
+        simulation.stopSimulation();
+        simulation.setDeterministic(true);
+        simulation.setSeed(seed);
+        simulation.setIntegrator(integrator);
+        simulation.setFriction(2);
+        return simulation;
+    }
+
+    private static void run(Box2DSpringSimulation simulation, int frames, Random pulses) {
+        for (int f = 0; f < frames; f++) {
+            // Only the number of frames counts, not when they are shown.
+            simulation.prepareFrame(pulses.nextLong());
+            simulation.stepFrame();
+            simulation.finishFrame();
+        }
+    }
+
+    private static double[] positions(Node[] nodes) {
+        double[] positions = new double[2 * nodes.length];
+        for (int i = 0; i < nodes.length; i++) {
+            positions[2 * i] = nodes[i].getLayoutX() + nodes[i].getTranslateX();
+            positions[2 * i + 1] = nodes[i].getLayoutY() + nodes[i].getTranslateY();
+        }
+        return positions;
+    }
+
+    /**
+     * Simulate a hub with springs to nodes that all start on top of it, so
+     * that the seed decides where they go.
+     *
+     * @param seed the seed of the simulation
+     * @param integrator the integrator
+     * @param pulses the source of the times at which frames are shown
+     * @return the positions of the nodes.
+     */
+    private static double[] simulate(long seed, Integrator integrator, Random pulses) {
+        Pane root = new Pane();
+        PhysLayout layout = new PhysLayout(root);
+        Node[] nodes = new Node[NODES];
+        for (int i = 0; i < NODES; i++) {
+            nodes[i] = new Rectangle(10, 10);
+            nodes[i].relocate(5, 5);
+            root.getChildren().add(nodes[i]);
+        }
+        layout.setMass(nodes[0], Double.POSITIVE_INFINITY);
+        for (int i = 1; i < NODES; i++) {
+            layout.addConnection(nodes[0], nodes[i], new Spring(40, 50));
+        }
+        Box2DSpringSimulation simulation = simulation(layout, seed, integrator);
+        run(simulation, FRAMES, pulses);
+        simulation.destroy();
+        return positions(nodes);
+    }
+
+    @Test
+    public void sameSeedGivesSamePositions() {
+        for (Integrator integrator : Integrator.values()) {
+            double[] first = simulate(7, integrator, new Random(1));
+            double[] second = simulate(7, integrator, new Random(2));
+            assertArrayEquals(integrator.toString(), first, second, 0);
+        }
+    }
+
+    @Test
+    public void nodesMoveApart() {
+        double[] positions = simulate(7, Integrator.EULER, new Random(1));
+        for (int i = 1; i < NODES; i++) {
+            double dx = positions[2 * i] - positions[0], dy = positions[2 * i + 1] - positions[1];
+            assertTrue(dx * dx + dy * dy > 1);
+        }
+    }
+
+    @Test
+    public void seedChangesPositions() {
+        double[] first = simulate(7, Integrator.EULER, new Random(1));
+        double[] second = simulate(8, Integrator.EULER, new Random(1));
+        assertFalse(Arrays.equals(first, second));
+    }
+
+    /**
+     * Removing several springs at once frees identifiers in the engine and the
+     * layout, which the springs added next reuse. The order in which they are
+     * freed decides where the new springs are stored, and so the order in
+     * which forces are added up. Comparing against a recording, rather than a
+     * second run, also catches an order that only changes between runs.
+     */
+    @Test
+    public void removingAndAddingSpringsMatchesRecordedLayout() {
+        Pane root = new Pane();
+        PhysLayout layout = new PhysLayout(root);
+        Node[] nodes = new Node[8];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = new Rectangle(10, 10);
+            nodes[i].relocate(40 * (i % 3) + 7 * i, 30 * (i / 3) + i * i % 11);
+            root.getChildren().add(nodes[i]);
+        }
+        layout.setMass(nodes[0], Double.POSITIVE_INFINITY);
+        for (int i = 1; i < nodes.length; i++) {
+            layout.addConnection(nodes[i - 1], nodes[i], new Spring(40, 50));
+        }
+        for (int i = 2; i < nodes.length; i += 2) {
+            layout.addConnection(nodes[0], nodes[i], new Spring(60, 20));
+        }
+        layout.addConnection(nodes[3], nodes[6], new Spring(50, 30));
+        layout.addConnection(nodes[3], nodes[7], new Spring(50, 30));
+        Box2DSpringSimulation simulation = simulation(layout, 7, Integrator.EULER);
+        Random pulses = new Random(1);
+        run(simulation, 20, pulses);
+
+        layout.removeNode(nodes[3]);
+        layout.clearConnections(nodes[0], nodes[4]);
+        layout.addConnection(nodes[1], nodes[5], new Spring(45, 40));
+        layout.addConnection(nodes[2], nodes[7], new Spring(45, 40));
+        layout.addConnection(nodes[4], nodes[6], new Spring(45, 40));
+        run(simulation, 20, pulses);
+
+        layout.addConnection(nodes[3], nodes[0], new Spring(30, 50));
+        layout.addConnection(nodes[3], nodes[5], new Spring(30, 50));
+        run(simulation, 20, pulses);
+        simulation.destroy();
+
+        int[] ids = {
+            layout.getConnection(nodes[1], nodes[5]).getId(),
+            layout.getConnection(nodes[2], nodes[7]).getId(),
+            layout.getConnection(nodes[4], nodes[6]).getId(),
+            layout.getConnection(nodes[3], nodes[0]).getId(),
+            layout.getConnection(nodes[3], nodes[5]).getId()
+        };
+        assertArrayEquals(RECORDED_IDS, ids);
+        assertArrayEquals(RECORDED_POSITIONS, positions(nodes), 0);
+    }
+}
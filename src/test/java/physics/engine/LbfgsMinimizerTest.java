@@ -0,0 +1,104 @@
+package physics.engine;
+
+import java.util.Random;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the minimiser on quadratic energies, whose minimum is known.
+ *
+ * @author Christoph Burschka &lt;christoph@burschka.de&gt;
+ */
+public class LbfgsMinimizerTest {
+
+    /**
+     * The energy sum of (k / 2) |x_i - t_i|² over each body, plus springs of
+     * rest length zero between neighbouring bodies, so the coordinates are
+     * coupled.
+     */
+    private static final class Quadratic implements LbfgsMinimizer.Gradient {
+
+        final double[] target, stiffness;
+        final double coupling;
+
+        Quadratic(double[] target, double[] stiffness, double coupling) {
+            this.target = target;
+            this.stiffness = stiffness;
+            this.coupling = coupling;
+        }
+
+        @Override
+        public void evaluate(double[] point, double[] gradient) {
+            int size = target.length;
+            for (int i = 0; i < size; i++) {
+                gradient[i] = stiffness[i / 2] * (point[i] - target[i]);
+            }
+            for (int i = 2; i < size; i++) {
+                double d = coupling * ((point[i] - target[i]) - (point[i - 2] - target[i - 2]));
+                gradient[i] += d;
+                gradient[i - 2] -= d;
+            }
+        }
+    }
+
+    private static Quadratic quadratic(int bodies, Random random) {
+        double[] target = new double[2 * bodies], stiffness = new double[bodies];
+        for (int i = 0; i < bodies; i++) {
+            target[2 * i] = random.nextDouble() * 100;
+            target[2 * i + 1] = random.nextDouble() * 100;
+            // A condition number of about 1000.
+            stiffness[i] = Math.pow(10, 3 * random.nextDouble());
+        }
+        return new Quadratic(target, stiffness, 5);
+    }
+
+    @Test
+    public void convergesToMinimumOfQuadratic() {
+        Random random = new Random(9);
+        LbfgsMinimizer minimizer = new LbfgsMinimizer();
+        Quadratic q = quadratic(50, random);
+        double[] point = new double[100];
+        assertTrue(minimizer.minimize(100, point, q, 1e-6, 1000, 1000));
+        // The smallest stiffness is about 1, so the error is about the tolerance.
+        for (int i = 0; i < 100; i++) {
+            assertEquals(q.target[i], point[i], 1e-4);
+        }
+        assertTrue(minimizer.evaluations < 1000);
+    }
+
+    @Test
+    public void startsAtMinimum() {
+        LbfgsMinimizer minimizer = new LbfgsMinimizer();
+        Quadratic q = quadratic(3, new Random(1));
+        double[] point = q.target.clone();
+        assertTrue(minimizer.minimize(6, point, q, 1e-9, 10, 1));
+        assertEquals(1, minimizer.evaluations);
+        assertArrayEquals(q.target, point, 0);
+    }
+
+    @Test
+    public void limitsStepPerIteration() {
+        LbfgsMinimizer minimizer = new LbfgsMinimizer();
+        Quadratic q = new Quadratic(new double[]{100, 0}, new double[]{1}, 0);
+        double[] point = new double[2];
+        assertFalse(minimizer.minimize(2, point, q, 1e-9, 1, 10));
+        assertEquals(10, point[0], 1e-9);
+        assertTrue(minimizer.minimize(2, point, q, 1e-9, 100, 10));
+        assertEquals(100, point[0], 1e-8);
+    }
+
+    @Test
+    public void reusesArraysForSmallerProblems() {
+        Random random = new Random(4);
+        LbfgsMinimizer minimizer = new LbfgsMinimizer();
+        for (int bodies : new int[]{40, 5, 20}) {
+            Quadratic q = quadratic(bodies, random);
+            double[] point = new double[2 * bodies];
+            assertTrue(minimizer.minimize(2 * bodies, point, q, 1e-6, 1000, 1000));
+            for (int i = 0; i < 2 * bodies; i++) {
+                assertEquals(q.target[i], point[i], 1e-4);
+            }
+        }
+    }
+}
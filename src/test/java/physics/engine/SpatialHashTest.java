@@ -0,0 +1,91 @@
+package physics.engine;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the overlap queries of the spatial hash against a brute force search.
+ *
+ * @author Christoph Burschka &lt;christoph@burschka.de&gt;
+ */
+public class SpatialHashTest {
+
+    private static Set<Long> pairs(SpatialHash hash) {
+        Set<Long> pairs = new HashSet<>();
+        for (int p = 0; p < hash.pairCount; p++) {
+            assertTrue(hash.pairA[p] < hash.pairB[p]);
+            assertTrue("reported twice", pairs.add((long) hash.pairA[p] << 32 | hash.pairB[p]));
+        }
+        return pairs;
+    }
+
+    private static Set<Long> bruteForce(int n, double[] minX, double[] minY, double[] maxX, double[] maxY) {
+        Set<Long> pairs = new HashSet<>();
+        for (int a = 0; a < n; a++) {
+            for (int b = a + 1; b < n; b++) {
+                if (minX[a] <= maxX[b] && minX[b] <= maxX[a] && minY[a] <= maxY[b] && minY[b] <= maxY[a]) {
+                    pairs.add((long) a << 32 | b);
+                }
+            }
+        }
+        return pairs;
+    }
+
+    @Test
+    public void findsExactlyTheOverlappingPairs() {
+        Random random = new Random(3);
+        SpatialHash hash = new SpatialHash();
+        for (int n : new int[]{0, 1, 10, 200, 1000}) {
+            double[] minX = new double[n], minY = new double[n], maxX = new double[n], maxY = new double[n];
+            for (int i = 0; i < n; i++) {
+                minX[i] = random.nextDouble() * 400 - 200;
+                minY[i] = random.nextDouble() * 400 - 200;
+                // A few boxes span many cells.
+                double size = i % 50 == 0 ? 80 : 1 + random.nextDouble() * 15;
+                maxX[i] = minX[i] + size;
+                maxY[i] = minY[i] + random.nextDouble() * size;
+            }
+            // The same hash is reused for each size.
+            hash.build(n, minX, minY, maxX, maxY, 10);
+            assertEquals("n = " + n, bruteForce(n, minX, minY, maxX, maxY), pairs(hash));
+        }
+    }
+
+    @Test
+    public void touchingBoxesOverlap() {
+        SpatialHash hash = new SpatialHash();
+        double[] minX = {0, 10, 30}, minY = {0, 0, 0};
+        double[] maxX = {10, 20, 40}, maxY = {10, 10, 10};
+        hash.build(3, minX, minY, maxX, maxY, 10);
+        assertEquals(1, hash.pairCount);
+        assertEquals(0, hash.pairA[0]);
+        assertEquals(1, hash.pairB[0]);
+    }
+
+    @Test
+    public void orderDependsOnlyOnBoxes() {
+        Random random = new Random(5);
+        int n = 300;
+        double[] minX = new double[n], minY = new double[n], maxX = new double[n], maxY = new double[n];
+        for (int i = 0; i < n; i++) {
+            minX[i] = random.nextDouble() * 200;
+            minY[i] = random.nextDouble() * 200;
+            maxX[i] = minX[i] + 12;
+            maxY[i] = minY[i] + 8;
+        }
+        SpatialHash first = new SpatialHash(), second = new SpatialHash();
+        // A hash that has been used for more boxes before.
+        second.build(n, minX, minY, maxX, maxY, 3);
+        first.build(n, minX, minY, maxX, maxY, 10);
+        second.build(n, minX, minY, maxX, maxY, 10);
+        assertEquals(first.pairCount, second.pairCount);
+        for (int p = 0; p < first.pairCount; p++) {
+            assertEquals(first.pairA[p], second.pairA[p]);
+            assertEquals(first.pairB[p], second.pairB[p]);
+        }
+    }
+}
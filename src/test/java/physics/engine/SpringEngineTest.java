@@ -0,0 +1,169 @@
+package physics.engine;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import javafx.geometry.Point2D;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import physics.PointForceField;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests that the engine gives the same result on any number of threads and
+ * for the same seed, and its handling of islands.
+ *
+ * @author Christoph Burschka &lt;christoph@burschka.de&gt;
+ */
+public class SpringEngineTest {
+
+    // Enough springs and bodies for several chunks.
+    private static final int BODIES = 1000;
+    private static final int STEPS = 50;
+
+    private static ForkJoinPool pool;
+
+    @BeforeClass
+    public static void startPool() {
+        pool = new ForkJoinPool(4);
+    }
+
+    @AfterClass
+    public static void stopPool() {
+        pool.shutdown();
+    }
+
+    /**
+     * Build a random layout with springs, tethers, a field and the mesh. Some
+     * springs start with coinciding ends.
+     */
+    private static SpringEngine build(Integrator integrator, long seed) {
+        Random random = new Random(1);
+        SpringEngine engine = new SpringEngine();
+        engine.setIntegrator(integrator);
+        engine.setSeed(seed);
+        engine.setFriction(2);
+        engine.createBody(0, 0, Double.POSITIVE_INFINITY);
+        for (int i = 1; i < BODIES; i++) {
+            engine.createBody(random.nextDouble() * 1000, random.nextDouble() * 1000, 1);
+        }
+        for (int i = 1; i < BODIES; i++) {
+            engine.addSpring(i - 1, i, 30, 20, 0, 0, 0, 0);
+            if (i % 10 == 0) {
+                engine.addTether(i, 0, 5, 0, 0, 500, 500);
+            }
+            if (i % 3 == 0) {
+                engine.setMeshTarget(i, random.nextDouble() * 1000, random.nextDouble() * 1000);
+            }
+        }
+        for (int i = 1; i < 20; i++) {
+            int b = engine.createBody(engine.getX(i), engine.getY(i), 1);
+            engine.addSpring(i, b, 10, 20, 0, 0, 0, 0);
+        }
+        engine.setMesh(5, 0.5);
+        engine.addField(new PointForceField(new Point2D(500, 500), -100));
+        return engine;
+    }
+
+    private static double[] run(SpringEngine engine) {
+        for (int s = 0; s < STEPS; s++) {
+            engine.step(1e-3);
+        }
+        int n = engine.getCapacity();
+        double[] state = new double[4 * n];
+        for (int i = 0; i < n; i++) {
+            if (engine.containsBody(i)) {
+                state[4 * i] = engine.getX(i);
+                state[4 * i + 1] = engine.getY(i);
+                state[4 * i + 2] = engine.getVelocityX(i);
+                state[4 * i + 3] = engine.getVelocityY(i);
+            }
+        }
+        return state;
+    }
+
+    private static double[] run(SpringEngine engine, ForkJoinPool pool) {
+        engine.setPool(pool);
+        engine.setParallelThreshold(1);
+        return run(engine);
+    }
+
+    @Test
+    public void parallelForcesEqualSerialForces() {
+        for (Integrator integrator : Integrator.values()) {
+            assertArrayEquals(integrator.toString(), run(build(integrator, 0), null), run(build(integrator, 0), pool), 0);
+        }
+    }
+
+    @Test
+    public void sameSeedGivesSameResult() {
+        for (Integrator integrator : Integrator.values()) {
+            assertArrayEquals(integrator.toString(), run(build(integrator, 7)), run(build(integrator, 7)), 0);
+        }
+    }
+
+    @Test
+    public void seedChoosesDirectionOfCoincidingEnds() {
+        SpringEngine a = new SpringEngine(), b = new SpringEngine();
+        b.setSeed(1);
+        for (SpringEngine engine : new SpringEngine[]{a, b}) {
+            engine.setIntegrator(Integrator.EULER);
+            engine.createBody(0, 0, 1);
+            engine.createBody(0, 0, 1);
+            engine.addSpring(0, 1, 10, 10, 0, 0, 0, 0);
+            engine.step(1e-3);
+        }
+        assertTrue(a.getX(0) * a.getX(0) + a.getY(0) * a.getY(0) > 0);
+        assertTrue(a.getX(0) != b.getX(0) || a.getY(0) != b.getY(0));
+    }
+
+    @Test
+    public void immovableBodyWakesConnectedIslands() {
+        SpringEngine engine = new SpringEngine();
+        engine.setSleepVelocity(0.1);
+        engine.setSleepEnergy(1);
+        engine.setSleepTime(0.1);
+        int fixed = engine.createBody(0, 0, Double.POSITIVE_INFINITY);
+        int a = engine.createBody(50, 0, 1), b = engine.createBody(80, 0, 1);
+        int c = engine.createBody(0, 50, 1);
+        int lone = engine.createBody(500, 500, 1);
+        engine.addSpring(a, b, 30, 10, 0, 0, 0, 0);
+        engine.addSpring(fixed, a, 50, 10, 0, 0, 0, 0);
+        engine.addSpring(c, fixed, 50, 10, 0, 0, 0, 0);
+        for (int s = 0; s < 100000 && !engine.isAsleep(); s++) {
+            engine.step(1e-3);
+        }
+        assertTrue(engine.isAsleep());
+
+        engine.wake(fixed);
+        assertFalse(engine.isAsleep(a));
+        assertFalse(engine.isAsleep(b));
+        assertFalse(engine.isAsleep(c));
+        assertTrue(engine.isAsleep(lone));
+    }
+
+    @Test
+    public void wakingOneBodyWakesOnlyItsIsland() {
+        SpringEngine engine = new SpringEngine();
+        engine.setSleepVelocity(0.1);
+        engine.setSleepEnergy(1);
+        engine.setSleepTime(0.1);
+        int a = engine.createBody(0, 0, 1), b = engine.createBody(40, 0, 1);
+        int c = engine.createBody(200, 0, 1), d = engine.createBody(240, 0, 1);
+        int e = engine.createBody(280, 0, 1);
+        engine.addSpring(a, b, 30, 10, 0, 0, 0, 0);
+        engine.addSpring(c, d, 30, 10, 0, 0, 0, 0);
+        engine.addSpring(d, e, 30, 10, 0, 0, 0, 0);
+        for (int s = 0; s < 100000 && !engine.isAsleep(); s++) {
+            engine.step(1e-3);
+        }
+        assertTrue(engine.isAsleep());
+
+        engine.wake(e);
+        assertFalse(engine.isAsleep(c));
+        assertFalse(engine.isAsleep(d));
+        assertTrue(engine.isAsleep(a));
+        assertTrue(engine.isAsleep(b));
+    }
+}
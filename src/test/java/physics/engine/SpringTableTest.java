@@ -0,0 +1,117 @@
+package physics.engine;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the packed storage of springs.
+ *
+ * @author Christoph Burschka &lt;christoph@burschka.de&gt;
+ */
+public class SpringTableTest {
+
+    private static int add(SpringTable table, int a, int b, double length) {
+        return table.add(a, b, length, 1, 0, 0, 0, 0);
+    }
+
+    private static double length(SpringTable table, int id) {
+        for (int slot = 0; slot < table.count; slot++) {
+            if (table.a[slot] == table.getA(id) && table.b[slot] == table.getB(id)) {
+                return table.length[slot];
+            }
+        }
+        return Double.NaN;
+    }
+
+    @Test
+    public void addAssignsConsecutiveIds() {
+        SpringTable table = new SpringTable();
+        for (int i = 0; i < 40; i++) {
+            assertEquals(i, add(table, i, i + 1, i));
+        }
+        assertEquals(40, table.count);
+        assertEquals(7, table.getA(7));
+        assertEquals(8, table.getB(7));
+    }
+
+    @Test
+    public void removeMovesLastSpringAndKeepsIds() {
+        SpringTable table = new SpringTable();
+        int first = add(table, 0, 1, 10);
+        int second = add(table, 1, 2, 20);
+        int third = add(table, 2, 3, 30);
+        table.remove(first);
+        assertEquals(2, table.count);
+        assertFalse(table.contains(first));
+        assertTrue(table.contains(second));
+        assertTrue(table.contains(third));
+        assertEquals(2, table.getA(third));
+        assertEquals(3, table.getB(third));
+        assertEquals(30, length(table, third), 0);
+        assertEquals(20, length(table, second), 0);
+    }
+
+    @Test
+    public void removedIdsAreReused() {
+        SpringTable table = new SpringTable();
+        for (int i = 0; i < 5; i++) {
+            add(table, i, i + 1, 1);
+        }
+        table.remove(1);
+        table.remove(3);
+        int reused = add(table, 7, 8, 1);
+        assertTrue(reused == 1 || reused == 3);
+        int other = add(table, 8, 9, 1);
+        assertEquals(4, reused + other);
+        assertEquals(5, add(table, 9, 10, 1));
+        assertEquals(7, table.getA(reused));
+        assertEquals(6, table.count);
+    }
+
+    @Test
+    public void setReportsChanges() {
+        SpringTable table = new SpringTable();
+        int id = add(table, 0, 1, 10);
+        assertFalse(table.set(id, 10, 1, 0, 0, 0, 0));
+        assertTrue(table.set(id, 12, 1, 0, 0, 0, 0));
+        assertEquals(12, table.length[0], 0);
+    }
+
+    @Test
+    public void endsOfBodyAreListed() {
+        SpringTable table = new SpringTable();
+        add(table, 0, 1, 1);
+        int removed = add(table, 0, 2, 1);
+        add(table, 3, 0, 1);
+        add(table, 1, 2, 1);
+        table.remove(removed);
+        int neighbors = 0;
+        for (int end = table.firstEnd(0); end >= 0; end = table.nextEnd(end)) {
+            int other = table.opposite(end);
+            assertTrue(other == 1 || other == 3);
+            neighbors++;
+        }
+        assertEquals(2, neighbors);
+        assertEquals(-1, table.firstEnd(100));
+    }
+
+    @Test
+    public void removeAllRemovesSpringsOfBody() {
+        SpringTable table = new SpringTable();
+        add(table, 0, 1, 1);
+        add(table, 1, 2, 1);
+        int kept = add(table, 2, 3, 1);
+        add(table, 4, 1, 1);
+        table.removeAll(1);
+        assertEquals(1, table.count);
+        assertTrue(table.contains(kept));
+        assertEquals(-1, table.firstEnd(1));
+
+        table.clear();
+        assertEquals(0, table.count);
+        assertFalse(table.contains(kept));
+        assertEquals(-1, table.firstEnd(2));
+        assertEquals(0, add(table, 5, 6, 1));
+    }
+}